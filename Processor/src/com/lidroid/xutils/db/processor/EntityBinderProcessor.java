@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * 编译时为实体类生成 com.lidroid.xutils.db.table.EntityBinder 的实现（实体类名 + "$$EntityBinder"），
+ * 读写字段不再使用反射。
+ * <p/>
+ * 处理带有@Table注解或含有@Id/@Column/@Foreign字段的类（以及同一次编译中的父类），
+ * 字段的选取规则与TableUtils相同。private字段通过非private的getter/setter访问，
+ * 都不能访问时不生成该字段的访问器，运行时回退到反射。
+ * <p/>
+ * 使用：把Processor模块编译成jar，加入javac的-processorpath
+ * （jar中包含META-INF/services/javax.annotation.processing.Processor）。
+ */
+@SupportedAnnotationTypes({
+        "com.lidroid.xutils.db.annotation.Table",
+        "com.lidroid.xutils.db.annotation.Id",
+        "com.lidroid.xutils.db.annotation.Column",
+        "com.lidroid.xutils.db.annotation.Foreign"})
+public class EntityBinderProcessor extends AbstractProcessor {
+
+    private static final String ANNOTATION_PACKAGE = "com.lidroid.xutils.db.annotation.";
+    private static final String BINDER_SUFFIX = "$$EntityBinder";
+
+    /**
+     * 已生成的实体类
+     */
+    private final Set<String> generatedTypes = new HashSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        LinkedHashSet<TypeElement> entityTypes = new LinkedHashSet<TypeElement>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.CLASS) {
+                    entityTypes.add((TypeElement) element);
+                } else if (element.getKind() == ElementKind.FIELD) {
+                    entityTypes.add((TypeElement) element.getEnclosingElement());
+                }
+            }
+        }
+
+        // 父类的字段使用父类的binder（Column以声明字段的类查找binder）
+        Set<Element> rootElements = new HashSet<Element>(roundEnv.getRootElements());
+        for (TypeElement entityType : new ArrayList<TypeElement>(entityTypes)) {
+            TypeElement superType = getSuperType(entityType);
+            while (superType != null && rootElements.contains(getTopLevelType(superType))) {
+                entityTypes.add(superType);
+                superType = getSuperType(superType);
+            }
+        }
+
+        for (TypeElement entityType : entityTypes) {
+            String qualifiedName = entityType.getQualifiedName().toString();
+            if (generatedTypes.add(qualifiedName) && isAccessible(entityType)) {
+                try {
+                    writeBinder(entityType);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "generate " + qualifiedName + BINDER_SUFFIX + " error: " + e.getMessage(), entityType);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void writeBinder(TypeElement entityType) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(entityType).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(entityType).toString();
+        String binderSimpleName = (packageName.length() > 0 ? binaryName.substring(packageName.length() + 1) : binaryName) + BINDER_SUFFIX;
+        String entityName = entityType.getQualifiedName().toString();
+
+        List<String[]> fieldBinders = new ArrayList<String[]>(); // [fieldName, binder source]
+        for (Element element : entityType.getEnclosedElements()) {
+            if (element.getKind() != ElementKind.FIELD) continue;
+            VariableElement field = (VariableElement) element;
+            if (field.getModifiers().contains(Modifier.STATIC) || hasAnnotation(field, "Transient")) continue;
+            if (!isSimpleColumnType(field.asType()) && !hasAnnotation(field, "Foreign")) continue;
+
+            String binder = buildFieldBinder(entityType, entityName, field);
+            if (binder != null) {
+                fieldBinders.add(new String[]{field.getSimpleName().toString(), binder});
+            }
+        }
+
+        Writer writer = processingEnv.getFiler().createSourceFile(
+                (packageName.length() > 0 ? packageName + "." : "") + binderSimpleName, entityType).openWriter();
+        try {
+            StringBuilder source = new StringBuilder();
+            source.append("// Generated by EntityBinderProcessor. Do not modify!\n");
+            if (packageName.length() > 0) {
+                source.append("package ").append(packageName).append(";\n\n");
+            }
+            source.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+            source.append("public final class ").append(binderSimpleName)
+                    .append(" implements com.lidroid.xutils.db.table.EntityBinder {\n\n");
+            source.append("    @Override\n");
+            source.append("    public FieldBinder getFieldBinder(String fieldName) {\n");
+            for (String[] fieldBinder : fieldBinders) {
+                source.append("        if (\"").append(fieldBinder[0]).append("\".equals(fieldName)) return binder_")
+                        .append(fieldBinder[0]).append(";\n");
+            }
+            source.append("        return null;\n");
+            source.append("    }\n");
+            for (String[] fieldBinder : fieldBinders) {
+                source.append("\n").append(fieldBinder[1]);
+            }
+            source.append("}\n");
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return FieldBinder常量的源码，字段及其getter/setter都不能访问时返回null
+     */
+    private String buildFieldBinder(TypeElement entityType, String entityName, VariableElement field) {
+        String fieldName = field.getSimpleName().toString();
+        TypeMirror fieldType = field.asType();
+        boolean fieldAccessible = !field.getModifiers().contains(Modifier.PRIVATE);
+
+        String getMethod = findGetMethod(entityType, field);
+        String setMethod = findSetMethod(entityType, field);
+        if ((getMethod == null || setMethod == null) && !fieldAccessible) {
+            return null;
+        }
+        if (setMethod == null && field.getModifiers().contains(Modifier.FINAL)) {
+            return null;
+        }
+
+        String target = "((" + entityName + ") entity)";
+        String getExpression = getMethod != null ? target + "." + getMethod + "()" : target + "." + fieldName;
+        String castType = fieldType.getKind().isPrimitive() ?
+                processingEnv.getTypeUtils().boxedClass((PrimitiveType) fieldType).getQualifiedName().toString() :
+                getTypeName(fieldType);
+
+        StringBuilder source = new StringBuilder();
+        source.append("    private static final FieldBinder binder_").append(fieldName).append(" = new FieldBinder() {\n");
+
+        source.append("        @Override\n");
+        source.append("        public Object get(Object entity) {\n");
+        source.append("            return ").append(getExpression).append(";\n");
+        source.append("        }\n\n");
+
+        source.append("        @Override\n");
+        source.append("        public void set(Object entity, Object value) {\n");
+        String assign = assignStatement(target, fieldName, setMethod, "(" + castType + ") value");
+        if (fieldType.getKind().isPrimitive()) {
+            source.append("            if (value != null) ").append(assign).append("\n");
+        } else {
+            source.append("            ").append(assign).append("\n");
+        }
+        source.append("        }\n\n");
+
+        source.append("        @Override\n");
+        source.append("        public boolean setValue(Object entity, android.database.Cursor cursor, int index) {\n");
+        String cursorExpression = getCursorExpression(fieldType);
+        if (cursorExpression != null) {
+            source.append("            ").append(assignStatement(target, fieldName, setMethod, cursorExpression)).append("\n");
+            source.append("            return true;\n");
+        } else {
+            source.append("            return false;\n");
+        }
+        source.append("        }\n");
+
+        source.append("    };\n");
+        return source.toString();
+    }
+
+    private static String assignStatement(String target, String fieldName, String setMethod, String valueExpression) {
+        if (setMethod != null) {
+            return target + "." + setMethod + "(" + valueExpression + ");";
+        }
+        return target + "." + fieldName + " = " + valueExpression + ";";
+    }
+
+    /**
+     * 与ColumnUtils.getCursorValue相同的读取方式
+     *
+     * @return 不是简单类型时返回null
+     */
+    private static String getCursorExpression(TypeMirror fieldType) {
+        String typeName = getTypeName(fieldType);
+        if (typeName.equals("int") || typeName.equals("java.lang.Integer")) {
+            return "cursor.getInt(index)";
+        } else if (typeName.equals("long") || typeName.equals("java.lang.Long")) {
+            return "cursor.getLong(index)";
+        } else if (typeName.equals("boolean") || typeName.equals("java.lang.Boolean")) {
+            return "cursor.getInt(index) == 1";
+        } else if (typeName.equals("float") || typeName.equals("java.lang.Float")) {
+            return "cursor.getFloat(index)";
+        } else if (typeName.equals("double") || typeName.equals("java.lang.Double")) {
+            return "cursor.getDouble(index)";
+        } else if (typeName.equals("byte") || typeName.equals("java.lang.Byte")) {
+            return "(byte) cursor.getInt(index)";
+        } else if (typeName.equals("short") || typeName.equals("java.lang.Short")) {
+            return "cursor.getShort(index)";
+        } else if (typeName.equals("char") || typeName.equals("java.lang.Character")) {
+            return "cursor.getString(index).charAt(0)";
+        } else if (typeName.equals("java.lang.String") || typeName.equals("java.lang.CharSequence")) {
+            return "cursor.getString(index)";
+        } else if (typeName.equals("byte[]")) {
+            return "cursor.getBlob(index)";
+        } else if (typeName.equals("java.util.Date")) {
+            return "new java.util.Date(cursor.getLong(index))";
+        } else if (typeName.equals("java.sql.Date")) {
+            return "new java.sql.Date(cursor.getLong(index))";
+        }
+        return null;
+    }
+
+    /**
+     * 同ColumnUtils.isSimpleColumnType
+     */
+    private static boolean isSimpleColumnType(TypeMirror type) {
+        return type.getKind().isPrimitive() || getCursorExpression(type) != null;
+    }
+
+    /**
+     * 同ColumnUtils.getColumnGetMethod的命名规则，只查找entityType中声明的非private方法
+     */
+    private String findGetMethod(TypeElement entityType, VariableElement field) {
+        String fieldName = field.getSimpleName().toString();
+        if (field.asType().getKind() == TypeKind.BOOLEAN) {
+            String methodName = fieldName.startsWith("is") ? fieldName : "is" + capitalize(fieldName);
+            if (findMethod(entityType, methodName, null) != null) {
+                return methodName;
+            }
+        }
+        String methodName = "get" + capitalize(fieldName);
+        return findMethod(entityType, methodName, null) != null ? methodName : null;
+    }
+
+    /**
+     * 同ColumnUtils.getColumnSetMethod的命名规则
+     */
+    private String findSetMethod(TypeElement entityType, VariableElement field) {
+        String fieldName = field.getSimpleName().toString();
+        if (field.asType().getKind() == TypeKind.BOOLEAN && fieldName.startsWith("is") && fieldName.length() > 2) {
+            String methodName = "set" + capitalize(fieldName.substring(2));
+            if (findMethod(entityType, methodName, field.asType()) != null) {
+                return methodName;
+            }
+        }
+        String methodName = "set" + capitalize(fieldName);
+        return findMethod(entityType, methodName, field.asType()) != null ? methodName : null;
+    }
+
+    /**
+     * @param parameterType 为null时查找无参方法
+     */
+    private ExecutableElement findMethod(TypeElement entityType, String methodName, TypeMirror parameterType) {
+        for (Element element : entityType.getEnclosedElements()) {
+            if (element.getKind() != ElementKind.METHOD || !element.getSimpleName().contentEquals(methodName)) continue;
+            Set<Modifier> modifiers = element.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)) continue;
+            ExecutableElement method = (ExecutableElement) element;
+            List<? extends VariableElement> parameters = method.getParameters();
+            if (parameterType == null) {
+                if (parameters.isEmpty()) {
+                    return method;
+                }
+            } else if (parameters.size() == 1 && processingEnv.getTypeUtils().isSameType(
+                    processingEnv.getTypeUtils().erasure(parameters.get(0).asType()),
+                    processingEnv.getTypeUtils().erasure(parameterType))) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 擦除泛型及类型注解后的类型名，如 int、byte[]、java.util.List
+     */
+    private static String getTypeName(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return type.getKind().name().toLowerCase(Locale.US);
+        } else if (type.getKind() == TypeKind.ARRAY) {
+            return getTypeName(((ArrayType) type).getComponentType()) + "[]";
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+        }
+        return "java.lang.Object";
+    }
+
+    private static boolean hasAnnotation(Element element, String simpleName) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(ANNOTATION_PACKAGE + simpleName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 生成的binder与实体类在同一个包中，实体类（及外部类）不能是private或局部类
+     */
+    private static boolean isAccessible(TypeElement entityType) {
+        Element element = entityType;
+        while (element.getKind().isClass() || element.getKind().isInterface()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            Element enclosing = element.getEnclosingElement();
+            if (enclosing.getKind() == ElementKind.PACKAGE) {
+                return ((TypeElement) element).getNestingKind() == NestingKind.TOP_LEVEL;
+            }
+            if (!(enclosing.getKind().isClass() || enclosing.getKind().isInterface())) {
+                return false;
+            }
+            element = enclosing;
+        }
+        return false;
+    }
+
+    private static TypeElement getSuperType(TypeElement type) {
+        TypeMirror superType = type.getSuperclass();
+        if (superType.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement superElement = (TypeElement) ((DeclaredType) superType).asElement();
+        return superElement.getQualifiedName().contentEquals("java.lang.Object") ? null : superElement;
+    }
+
+    private static Element getTopLevelType(Element element) {
+        while (element.getEnclosingElement() != null && element.getEnclosingElement().getKind() != ElementKind.PACKAGE) {
+            element = element.getEnclosingElement();
+        }
+        return element;
+    }
+
+    private static String capitalize(String name) {
+        return name.substring(0, 1).toUpperCase() + name.substring(1);
+    }
+}
@@ -18,16 +18,26 @@ package com.lidroid.xutils;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import com.lidroid.xutils.db.callback.DbCallBack;
 import com.lidroid.xutils.db.sqlite.*;
 import com.lidroid.xutils.db.table.*;
 import com.lidroid.xutils.exception.DbException;
 import com.lidroid.xutils.util.LogUtils;
+import com.lidroid.xutils.util.core.LruMemoryCache;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DbUtils {
 
@@ -39,10 +49,46 @@ public class DbUtils {
     private static HashMap<String, DbUtils> daoMap = new HashMap<String, DbUtils>();
 
     private SQLiteDatabase database;
+
+    /**
+     * WAL模式下的只读连接，查询轮流使用，写操作只通过database
+     */
+    private SQLiteDatabase[] readDatabases;
+    private final AtomicInteger readDatabaseIndex = new AtomicInteger();
+
+    /**
+     * 这个数据库中已存在的表
+     */
+    private final SchemaCatalog schemaCatalog;
+
     private DaoConfig config;
     private boolean debug = false;
     private boolean allowTransaction = false;
 
+    /**
+     * key: sql
+     * value: compiled statement
+     */
+    private final LruMemoryCache<String, SQLiteStatement> statementCache;
+
+    private volatile QueryCache queryCache;
+
+    private volatile WriteBehindBuffer writeBehindBuffer;
+
+    /**
+     * 各次configWriteBehind()创建的缓冲区共用的写入线程和shutdown hook
+     */
+    private ScheduledExecutorService writeBehindScheduler;
+    private Thread writeBehindShutdownHook;
+
+    private volatile DirtyTracker dirtyTracker;
+
+    /**
+     * key: 通过Selector.columns(...)查询出的实体
+     * value: 查询了的列名（不含主键）
+     */
+    private final WeakIdentityMap<Set<String>> loadedColumnsMap = new WeakIdentityMap<Set<String>>();
+
     private DbUtils(DaoConfig config) {
         if (config == null) {
             throw new RuntimeException("daoConfig is null");
@@ -52,8 +98,37 @@ public class DbUtils {
             throw new RuntimeException("android context is null");
         }
 
-        this.database = new SQLiteDbHelper(config.getContext().getApplicationContext(), config.getDbName(), config.getDbVersion(), config.getDbUpgradeListener()).getWritableDatabase();
+        // onUpgrade中的dropDb()会用到statementCache
+        this.statementCache = new LruMemoryCache<String, SQLiteStatement>(config.getStatementCacheSize()) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue, SQLiteStatement newValue) {
+                // remove()是acquireStatement取出语句，不能关闭
+                if (evicted || newValue != null) {
+                    oldValue.close();
+                }
+            }
+        };
+
         this.config = config;
+        this.database = new SQLiteDbHelper(config.getContext().getApplicationContext(), config.getDbName(), config.getDbVersion(), config.getDbUpgradeListener()).getWritableDatabase();
+
+        this.schemaCatalog = new SchemaCatalog(database);
+        this.schemaCatalog.reload();
+
+        // 打开数据库时迁移注册的实体的表
+        if (config.getEntityTypes() != null) {
+            for (Class<?> entityType : config.getEntityTypes()) {
+                try {
+                    createTableIfNotExist(entityType);
+                } catch (DbException e) {
+                    LogUtils.e(e.getMessage(), e);
+                }
+            }
+        }
+
+        if (config.isWriteAheadLogging()) {
+            openReadDatabases(config.getReadConnectionPoolSize());
+        }
     }
 
 
@@ -99,10 +174,206 @@ public class DbUtils {
         this.allowTransaction = allowTransaction;
     }
 
+    /**
+     * 开启Selector/DbModelSelector查询结果缓存，DbUtils对某张表的写操作会使这张表的缓存失效。
+     * 缓存按结果的行数限制大小，不按内存字节数计算。
+     * 只缓存查询出的行，每次命中都创建新的实体（外键关联的实体重新加载）；session期间不使用缓存查询实体。
+     * 事务中的写操作在最外层事务结束后会再使缓存失效一次；直接在getDatabase()上开启的事务结束后，
+     * 需要调用onTransactionEnded()。
+     *
+     * @param maxRows 最多缓存的行数，小于等于0时关闭缓存
+     * @see QueryCache
+     */
+    public void configQueryCache(int maxRows) {
+        this.queryCache = maxRows > 0 ? new QueryCache(maxRows) : null;
+    }
+
+    /**
+     * 开启saveDeferred()的延迟写入：缓冲的实体达到maxSize个或等待超过maxDelay毫秒时在一个事务中写入。
+     * 关闭（maxSize小于等于0）时会先写入已缓冲的实体。
+     */
+    public void configWriteBehind(int maxSize, long maxDelay) {
+        configWriteBehind(maxSize, maxDelay, null);
+    }
+
+    /**
+     * @param failureListener 逐个重试仍写入失败的实体的回调，为null时只记录日志
+     * @see #configWriteBehind(int, long)
+     */
+    public synchronized void configWriteBehind(int maxSize, long maxDelay, WriteBehindBuffer.FailureListener failureListener) {
+        WriteBehindBuffer oldBuffer = writeBehindBuffer;
+        if (maxSize > 0) {
+            if (writeBehindScheduler == null) {
+                writeBehindScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "DbUtils write-behind");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            if (writeBehindShutdownHook == null) {
+                // 尽力而为：android上进程通常直接被杀死，不会执行shutdown hook
+                writeBehindShutdownHook = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+                Runtime.getRuntime().addShutdownHook(writeBehindShutdownHook);
+            }
+            this.writeBehindBuffer = new WriteBehindBuffer(this, writeBehindScheduler, maxSize, maxDelay, failureListener);
+        } else {
+            this.writeBehindBuffer = null;
+        }
+
+        if (oldBuffer != null) {
+            oldBuffer.flush();
+        }
+
+        if (maxSize <= 0) {
+            if (writeBehindScheduler != null) {
+                writeBehindScheduler.shutdown();
+                writeBehindScheduler = null;
+            }
+            if (writeBehindShutdownHook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(writeBehindShutdownHook);
+                } catch (IllegalStateException ignored) {
+                    // 正在关闭
+                }
+                writeBehindShutdownHook = null;
+            }
+        }
+    }
+
+    /**
+     * 开启后记录查询出的实体的快照，update(entity)只更新修改过的列，并跳过未修改的关联实体的级联保存
+     *
+     * @see DirtyTracker
+     */
+    public void configDirtyTracking(boolean dirtyTracking) {
+        this.dirtyTracker = dirtyTracking ? new DirtyTracker() : null;
+    }
+
+    /**
+     * @return 没有开启configDirtyTracking时返回null
+     */
+    public DirtyTracker getDirtyTracker() {
+        return dirtyTracker;
+    }
+
+    /**
+     * @return 实体是否与查询出时不同；没有开启configDirtyTracking或实体不是查询出的时返回true
+     */
+    public boolean isDirty(Object entity) {
+        DirtyTracker tracker = dirtyTracker;
+        return tracker == null || tracker.isDirty(entity);
+    }
+
+    /**
+     * @return 实体通过Selector.columns(...)查询时查询了的列名（不含主键），查询了所有列的实体返回null
+     */
+    public Set<String> getLoadedColumnNames(Object entity) {
+        return loadedColumnsMap.get(entity);
+    }
+
+    /**
+     * 由CursorUtils.EntityMapper调用，columnNames为null时表示实体的所有列都已查询
+     */
+    public void setLoadedColumnNames(Object entity, Set<String> columnNames) {
+        if (columnNames == null) {
+            loadedColumnsMap.remove(entity);
+        } else {
+            loadedColumnsMap.put(entity, columnNames);
+        }
+    }
+
     public SQLiteDatabase getDatabase() {
         return database;
     }
 
+    /**
+     * 开启WAL, 并打开poolSize个只读连接供查询使用（API 11以上有效）
+     */
+    private void openReadDatabases(int poolSize) {
+        if (Build.VERSION.SDK_INT < 11) {
+            return;
+        }
+        try {
+            if (!database.enableWriteAheadLogging()) {
+                return;
+            }
+        } catch (Exception e) {
+            LogUtils.e(e.getMessage(), e);
+            return;
+        }
+        if (poolSize < 1) {
+            return;
+        }
+        String path = database.getPath();
+        SQLiteDatabase[] dbs = new SQLiteDatabase[poolSize];
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                dbs[i] = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+            }
+            this.readDatabases = dbs;
+        } catch (Exception e) {
+            LogUtils.e(e.getMessage(), e);
+            for (SQLiteDatabase db : dbs) {
+                if (db != null) {
+                    db.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前线程在写事务中时必须使用写连接，否则看不到未提交的数据
+     */
+    private SQLiteDatabase getReadDatabase() {
+        SQLiteDatabase[] dbs = readDatabases;
+        if (dbs == null || database.inTransaction()) {
+            return database;
+        }
+        int index = (readDatabaseIndex.getAndIncrement() & Integer.MAX_VALUE) % dbs.length;
+        return dbs[index];
+    }
+
+    //*********************************************** session ********************************************************
+
+    private final ThreadLocal<IdentityMap> identityMapHolder = new ThreadLocal<IdentityMap>();
+
+    /**
+     * 为当前线程开启session：session期间按(实体类型, 主键)缓存查询出的实体，
+     * findById和关联主键的外键加载命中缓存时不再查询数据库，同一行总是返回同一个实例。
+     * 可以嵌套，需与endSession()成对调用。
+     */
+    public void beginSession() {
+        IdentityMap identityMap = identityMapHolder.get();
+        if (identityMap == null) {
+            identityMap = new IdentityMap();
+            identityMapHolder.set(identityMap);
+        }
+        identityMap.enterSession();
+    }
+
+    public void endSession() {
+        IdentityMap identityMap = identityMapHolder.get();
+        if (identityMap != null && identityMap.exitSession() <= 0) {
+            identityMap.clear();
+            identityMapHolder.remove();
+        }
+    }
+
+    /**
+     * @return 当前线程session的一级缓存，没有开启session时返回null
+     */
+    public IdentityMap getIdentityMap() {
+        return identityMapHolder.get();
+    }
+
     //*********************************************** operations ********************************************************
 
     public void saveOrUpdate(Object entity) throws DbException {
@@ -143,6 +414,31 @@ public class DbUtils {
         }
     }
 
+    /**
+     * 放入延迟写入缓冲区, 由configWriteBehind()设置的条件触发批量写入；
+     * 没有开启延迟写入时直接保存。
+     *
+     * @see #flush()
+     */
+    public void saveDeferred(Object entity) throws DbException {
+        WriteBehindBuffer buffer = writeBehindBuffer;
+        if (buffer != null) {
+            buffer.add(entity);
+        } else {
+            save(entity);
+        }
+    }
+
+    /**
+     * 立即写入延迟写入缓冲区中的实体, 应在Activity.onPause()、onTrimMemory()等进程可能被杀死之前调用
+     *
+     * @return 写入的实体个数
+     */
+    public int flush() {
+        WriteBehindBuffer buffer = writeBehindBuffer;
+        return buffer != null ? buffer.flush() : 0;
+    }
+
     public void save(List<Object> entities) throws DbException {
         try {
             beginTransaction();
@@ -157,6 +453,105 @@ public class DbUtils {
         }
     }
 
+    /**
+     * 批量插入：只检查一次表，复用同一个编译好的insert语句，
+     * 不论是否开启了事务都在事务中执行，每 DaoConfig.getBulkChunkSize() 行提交一次。
+     *
+     * @return 插入的行数
+     */
+    public <T> int saveAll(Class<T> entityType, Iterable<T> entities) throws DbException {
+        return bulkWrite(entityType, entities, false);
+    }
+
+    /**
+     * 批量saveOrUpdate：有主键值的实体复用同一个编译好的upsert语句，没有主键值的实体插入并绑定id，
+     * 事务和提交方式同saveAll()。
+     *
+     * @return 写入的行数
+     */
+    public <T> int saveOrUpdateAll(Class<T> entityType, Iterable<T> entities) throws DbException {
+        return bulkWrite(entityType, entities, true);
+    }
+
+    private <T> int bulkWrite(Class<T> entityType, Iterable<T> entities, boolean upsert) throws DbException {
+        if (entities == null) return 0;
+        createTableIfNotExist(entityType);
+
+        int chunkSize = config.getBulkChunkSize();
+        int count = 0;
+        long startTime = System.nanoTime();
+        SQLiteStatement statement = null;
+        String sql = null;
+        IdentityMap identityMap = identityMapHolder.get();
+        boolean successful = false;
+        boolean open = false;
+        openTransaction();
+        open = true;
+        try {
+            for (T entity : entities) {
+                if (entity == null) continue;
+                if (upsert && !TableUtils.hasPrimaryKeyValue(entity)) {
+                    saveBindingIdWithoutTransaction(entity);
+                } else if (upsert && getLoadedColumnNames(entity) != null) {
+                    updateWithoutTransaction(entity);
+                } else if (upsert && !isUpsertSupported()) {
+                    createTableIfNotExist(entity.getClass());
+                    upsertWithoutTransaction(entity);
+                } else {
+                    SqlInfo sqlInfo = upsert ?
+                            SqlInfoBuilder.buildUpsertSqlInfo(this, entity, true) :
+                            SqlInfoBuilder.buildInsertSqlInfo(this, entity);
+                    if (sqlInfo == null) continue;
+                    if (statement == null) {
+                        sql = sqlInfo.getSql();
+                        debugSql(sql);
+                        statement = database.compileStatement(sql);
+                    }
+                    if (sql.equals(sqlInfo.getSql())) {
+                        bindArgs(statement, sqlInfo.getBindingArgs());
+                        statement.execute();
+                    } else { // entity is a subclass mapped to another table
+                        createTableIfNotExist(entity.getClass());
+                        execNonQuery(sqlInfo);
+                    }
+                    if (upsert) {
+                        putIdentity(entity, sqlInfo.getBindingArgs().get(0));
+                    }
+                    if (upsert) {
+                        refreshSnapshot(entity, null);
+                    }
+                }
+                count++;
+                if (count % chunkSize == 0) {
+                    open = false;
+                    closeTransaction(true);
+                    openTransaction();
+                    open = true;
+                }
+            }
+            successful = true;
+        } catch (DbException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DbException(e);
+        } finally {
+            if (open) {
+                closeTransaction(successful);
+            }
+            if (statement != null) {
+                statement.close();
+                invalidateQueryCache(sql);
+            }
+        }
+
+        if (debug) {
+            long elapsed = Math.max(System.nanoTime() - startTime, 1L);
+            LogUtils.d((upsert ? "saveOrUpdateAll " : "saveAll ") + count + " rows in " + (elapsed / 1000000L) + "ms, "
+                    + (count * 1000000000L / elapsed) + " rows/s");
+        }
+        return count;
+    }
+
     public boolean saveBindingId(Object entity) throws DbException {
         boolean result = false;
         try {
@@ -200,13 +595,53 @@ public class DbUtils {
         }
     }
 
+    /**
+     * 按实体类型分组，每组用 deleteByIds 的方式删除
+     */
     public void delete(List<Object> entities) throws DbException {
+        LinkedHashMap<Class<?>, List<Object>> idValueMap = new LinkedHashMap<Class<?>, List<Object>>();
+        for (Object entity : entities) {
+            Object idValue = Table.get(entity.getClass()).getId().getColumnValue(entity);
+            if (idValue == null) {
+                throw new DbException(entity.getClass() + " id value is null");
+            }
+            List<Object> idValues = idValueMap.get(entity.getClass());
+            if (idValues == null) {
+                idValues = new ArrayList<Object>();
+                idValueMap.put(entity.getClass(), idValues);
+            }
+            idValues.add(idValue);
+        }
+
         try {
             beginTransaction();
 
+            for (Map.Entry<Class<?>, List<Object>> entry : idValueMap.entrySet()) {
+                deleteByIdsWithoutTransaction(entry.getKey(), entry.getValue());
+            }
+
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+
+        DirtyTracker tracker = dirtyTracker;
+        if (tracker != null) {
             for (Object entity : entities) {
-                deleteWithoutTransaction(entity);
+                tracker.remove(entity);
             }
+        }
+    }
+
+    /**
+     * 按主键批量删除：DELETE ... WHERE id IN (?,?,...)，每条语句最多绑定 SqlInfo.MAX_BINDING_ARGS 个主键
+     */
+    public void deleteByIds(Class<?> entityType, Collection<?> idValues) throws DbException {
+        if (idValues == null || idValues.isEmpty()) return;
+        try {
+            beginTransaction();
+
+            deleteByIdsWithoutTransaction(entityType, idValues);
 
             setTransactionSuccessful();
         } finally {
@@ -219,6 +654,10 @@ public class DbUtils {
             beginTransaction();
 
             execNonQuery(SqlInfoBuilder.buildDeleteSqlInfo(entityType, idValue));
+            IdentityMap identityMap = identityMapHolder.get();
+            if (identityMap != null) {
+                identityMap.remove(entityType, idValue);
+            }
 
             setTransactionSuccessful();
         } finally {
@@ -232,6 +671,10 @@ public class DbUtils {
 
             SqlInfo sql = SqlInfoBuilder.buildDeleteSqlInfo(entityType, whereBuilder);
             execNonQuery(sql);
+            IdentityMap identityMap = identityMapHolder.get();
+            if (identityMap != null) {
+                identityMap.clear(entityType);
+            }
 
             setTransactionSuccessful();
         } finally {
@@ -265,11 +708,97 @@ public class DbUtils {
         }
     }
 
+    /**
+     * 只更新updateColumnNames列：这些列的值相同的实体合并为一条
+     * UPDATE ... WHERE id IN (?,?,...)，每条语句的参数不超过 SqlInfo.MAX_BINDING_ARGS 个。
+     * 没有指定列时同update(List)。
+     */
+    @SuppressWarnings("unchecked")
+    public void update(List<?> entities, String... updateColumnNames) throws DbException {
+        if (entities == null || entities.isEmpty()) return;
+        if (updateColumnNames == null || updateColumnNames.length == 0) {
+            update((List<Object>) entities);
+            return;
+        }
+        if (updateColumnNames.length >= SqlInfo.MAX_BINDING_ARGS) {
+            throw new DbException("too many update columns: " + updateColumnNames.length);
+        }
+
+        List<String> columnNames = Arrays.asList(updateColumnNames);
+        try {
+            beginTransaction();
+
+            // 在事务中取值：级联保存的关联实体与更新一起提交或回滚
+            // key: [entityType, 各列的值], value: 主键
+            LinkedHashMap<List<Object>, List<Object>> idValueMap = new LinkedHashMap<List<Object>, List<Object>>();
+            for (Object entity : entities) {
+                Table table = Table.get(entity.getClass());
+                Object idValue = table.getId().getColumnValue(entity);
+                if (idValue == null) {
+                    throw new DbException("this entity[" + entity.getClass() + "]'s id value is null");
+                }
+                List<Object> key = new ArrayList<Object>(updateColumnNames.length + 1);
+                key.add(entity.getClass());
+                for (String columnName : updateColumnNames) {
+                    Column column = table.columnMap.get(columnName);
+                    if (column == null) {
+                        throw new DbException("column " + columnName + " not found in " + entity.getClass());
+                    }
+                    Object value = column instanceof Foreign ?
+                            ((Foreign) column).getColumnValue(this, entity) :
+                            column.getColumnValue(entity);
+                    key.add(value == null ? column.getDbDefaultValue() : value);
+                }
+                List<Object> idValues = idValueMap.get(key);
+                if (idValues == null) {
+                    idValues = new ArrayList<Object>();
+                    idValueMap.put(key, idValues);
+                }
+                idValues.add(idValue);
+            }
+
+            int chunkSize = SqlInfo.MAX_BINDING_ARGS - updateColumnNames.length;
+            for (Map.Entry<List<Object>, List<Object>> entry : idValueMap.entrySet()) {
+                Class<?> entityType = (Class<?>) entry.getKey().get(0);
+                List<KeyValue> keyValueList = new ArrayList<KeyValue>(updateColumnNames.length);
+                for (int i = 0; i < updateColumnNames.length; i++) {
+                    keyValueList.add(new KeyValue(updateColumnNames[i], entry.getKey().get(i + 1)));
+                }
+                String idColumnName = Table.get(entityType).getId().getColumnName();
+                List<Object> idValues = entry.getValue();
+                for (int start = 0; start < idValues.size(); start += chunkSize) {
+                    List<Object> chunk = idValues.subList(start, Math.min(start + chunkSize, idValues.size()));
+                    execNonQuery(SqlInfoBuilder.buildUpdateSqlInfo(entityType, keyValueList, WhereBuilder.b(idColumnName, "IN", chunk)));
+                }
+            }
+            for (Object entity : entities) {
+                refreshSnapshot(entity, columnNames);
+                putIdentity(entity, Table.get(entity.getClass()).getId().getColumnValue(entity));
+            }
+
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+    }
+
     public void update(Object entity, WhereBuilder whereBuilder) throws DbException {
         try {
             beginTransaction();
 
-            execNonQuery(SqlInfoBuilder.buildUpdateSqlInfo(this, entity, whereBuilder));
+            SqlInfo sqlInfo = SqlInfoBuilder.buildUpdateSqlInfo(entity.getClass(), entity2LoadedKeyValueList(entity), whereBuilder);
+            if (sqlInfo != null) {
+                execNonQuery(sqlInfo);
+            }
+            // 更新了哪些行不确定，移除该类型实体的快照和session缓存
+            DirtyTracker tracker = dirtyTracker;
+            if (tracker != null) {
+                tracker.clear(entity.getClass());
+            }
+            IdentityMap identityMap = identityMapHolder.get();
+            if (identityMap != null) {
+                identityMap.clear(entity.getClass());
+            }
 
             setTransactionSuccessful();
         } finally {
@@ -279,9 +808,18 @@ public class DbUtils {
 
     @SuppressWarnings("unchecked")
     public <T> T findById(Class<T> entityType, Object idValue) throws DbException {
+        IdentityMap identityMap = identityMapHolder.get();
+        if (identityMap != null) {
+            Object entity = identityMap.get(entityType, idValue);
+            if (entity != null && getLoadedColumnNames(entity) == null) {
+                return (T) entity;
+            }
+            // 只查询了部分列的实例：重新查询，由EntityMapper补上其他列
+        }
+
         Id id = Table.get(entityType).getId();
         Selector selector = Selector.from(entityType).where(WhereBuilder.b(id.getColumnName(), "=", idValue));
-        Cursor cursor = execQuery(selector.limit(1).toString());
+        Cursor cursor = execQuery(selector.limit(1).toSqlInfo());
         try {
             if (cursor.moveToNext()) {
                 return (T) CursorUtils.getEntity(this, cursor, selector.getEntityType());
@@ -323,12 +861,54 @@ public class DbUtils {
         return findAll(selector);
     }
 
+    /**
+     * 开启autoMigrate时，查询前先迁移已存在的表，否则查询新增的列会失败
+     */
+    private void migrateBeforeRead(Class<?> entityType) throws DbException {
+        if (entityType != null && config.isAutoMigrate() && tableIsExist(entityType)) {
+            createTableIfNotExist(entityType);
+        }
+    }
+
+    /**
+     * session期间不缓存实体查询：session中同一主键只对应一个实例，重复查询直接读取数据库
+     */
+    private QueryCache activeQueryCache() {
+        return identityMapHolder.get() == null ? queryCache : null;
+    }
+
     @SuppressWarnings("unchecked")
     public <T> T findFirst(Selector selector) throws DbException {
-        Cursor cursor = execQuery(selector.limit(1).toString());
+        migrateBeforeRead(selector.getEntityType());
+        SqlInfo sqlInfo = selector.limit(1).toSqlInfo();
+        QueryCache cache = activeQueryCache();
+        String cacheKey = null;
+        long cacheVersion = 0;
+        Cursor cursor = null;
+        if (cache != null) {
+            cacheKey = QueryCache.buildKey(QueryCache.KIND_ENTITY, selector.getEntityType(), selector.getFetchNames(), sqlInfo);
+            QueryCache.Entry entry = cache.get(cacheKey);
+            if (entry != null) {
+                cursor = ((QueryCache.Rows) entry.getValue()).toCursor();
+                cache = null;
+            } else {
+                cacheVersion = cache.getVersion(selector.getTableName());
+            }
+        }
+        if (cursor == null) {
+            cursor = execQuery(sqlInfo);
+        }
+        QueryCache.Rows rows = cache == null ? null : new QueryCache.Rows(cursor);
+
+        T entity = null;
         try {
             if (cursor.moveToNext()) {
-                return (T) CursorUtils.getEntity(this, cursor, selector.getEntityType());
+                CursorUtils.EntityMapper<?> mapper = new CursorUtils.EntityMapper(this, cursor, selector.getEntityType(), selector.getFetchNames());
+                entity = (T) mapper.map(cursor);
+                if (rows != null) {
+                    rows.add(cursor);
+                }
+                mapper.fetchForeignEntities();
             }
         } catch (Exception e) {
             throw new DbException(e);
@@ -338,17 +918,46 @@ public class DbUtils {
                 cursor = null;
             }
         }
-        return null;
+
+        if (rows != null) {
+            cache.put(selector.getTableName(), cacheKey, rows, rows.size(), cacheVersion);
+        }
+        return entity;
     }
 
     @SuppressWarnings("unchecked")
     public <T> List<T> findAll(Selector selector) throws DbException {
-        Cursor cursor = execQuery(selector.toString());
+        migrateBeforeRead(selector.getEntityType());
+        SqlInfo sqlInfo = selector.toSqlInfo();
+        QueryCache cache = activeQueryCache();
+        String cacheKey = null;
+        long cacheVersion = 0;
+        Cursor cursor = null;
+        if (cache != null) {
+            cacheKey = QueryCache.buildKey(QueryCache.KIND_ENTITY_LIST, selector.getEntityType(), selector.getFetchNames(), sqlInfo);
+            QueryCache.Entry entry = cache.get(cacheKey);
+            if (entry != null) {
+                cursor = ((QueryCache.Rows) entry.getValue()).toCursor();
+                cache = null;
+            } else {
+                cacheVersion = cache.getVersion(selector.getTableName());
+            }
+        }
+        if (cursor == null) {
+            cursor = execQuery(sqlInfo);
+        }
+        QueryCache.Rows rows = cache == null ? null : new QueryCache.Rows(cursor);
+
         List<T> result = new ArrayList<T>();
         try {
+            CursorUtils.EntityMapper<?> mapper = new CursorUtils.EntityMapper(this, cursor, selector.getEntityType(), selector.getFetchNames());
             while (cursor.moveToNext()) {
-                result.add((T) CursorUtils.getEntity(this, cursor, selector.getEntityType()));
+                result.add((T) mapper.map(cursor));
+                if (rows != null) {
+                    rows.add(cursor);
+                }
             }
+            mapper.fetchForeignEntities();
         } catch (Exception e) {
             throw new DbException(e);
         } finally {
@@ -357,9 +966,30 @@ public class DbUtils {
                 cursor = null;
             }
         }
+
+        if (rows != null) {
+            cache.put(selector.getTableName(), cacheKey, rows, rows.size(), cacheVersion);
+        }
         return result;
     }
 
+    /**
+     * 逐行读取查询结果，适合遍历整张表等结果集很大的场景。
+     * 使用完毕（或提前结束遍历时）需调用 EntityIterator.close()。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> EntityIterator<T> iterate(Selector selector) throws DbException {
+        migrateBeforeRead(selector.getEntityType());
+        Cursor cursor = execQuery(selector.toSqlInfo());
+        try {
+            CursorUtils.EntityMapper<T> mapper = new CursorUtils.EntityMapper<T>(this, cursor, (Class<T>) selector.getEntityType());
+            return new EntityIterator<T>(cursor, mapper);
+        } catch (Exception e) {
+            cursor.close();
+            throw new DbException(e);
+        }
+    }
+
     public DbModel findDbModelFirst(String sql) throws DbException {
         Cursor cursor = execQuery(sql);
         try {
@@ -378,10 +1008,34 @@ public class DbUtils {
     }
 
     public DbModel findDbModelFirst(DbModelSelector selector) throws DbException {
-        Cursor cursor = execQuery(selector.limit(1).toString());
+        migrateBeforeRead(selector.getEntityType());
+        SqlInfo sqlInfo = selector.limit(1).toSqlInfo();
+        QueryCache cache = queryCache;
+        String cacheKey = null;
+        long cacheVersion = 0;
+        Cursor cursor = null;
+        if (cache != null) {
+            cacheKey = QueryCache.buildKey(QueryCache.KIND_DB_MODEL, selector.getEntityType(), null, sqlInfo);
+            QueryCache.Entry entry = cache.get(cacheKey);
+            if (entry != null) {
+                cursor = ((QueryCache.Rows) entry.getValue()).toCursor();
+                cache = null;
+            } else {
+                cacheVersion = cache.getVersion(selector.getTableName());
+            }
+        }
+        if (cursor == null) {
+            cursor = execQuery(sqlInfo);
+        }
+        QueryCache.Rows rows = cache == null ? null : new QueryCache.Rows(cursor);
+
+        DbModel dbModel = null;
         try {
             if (cursor.moveToNext()) {
-                return CursorUtils.getDbModel(cursor);
+                dbModel = CursorUtils.getDbModel(cursor);
+                if (rows != null) {
+                    rows.add(cursor);
+                }
             }
         } catch (Exception e) {
             throw new DbException(e);
@@ -391,7 +1045,11 @@ public class DbUtils {
                 cursor = null;
             }
         }
-        return null;
+
+        if (rows != null) {
+            cache.put(selector.getTableName(), cacheKey, rows, rows.size(), cacheVersion);
+        }
+        return dbModel;
     }
 
     public List<DbModel> findDbModelAll(String sql) throws DbException {
@@ -412,12 +1070,36 @@ public class DbUtils {
         return dbModelList;
     }
 
+    @SuppressWarnings("unchecked")
     public List<DbModel> findDbModelAll(DbModelSelector selector) throws DbException {
-        Cursor cursor = execQuery(selector.toString());
+        migrateBeforeRead(selector.getEntityType());
+        SqlInfo sqlInfo = selector.toSqlInfo();
+        QueryCache cache = queryCache;
+        String cacheKey = null;
+        long cacheVersion = 0;
+        Cursor cursor = null;
+        if (cache != null) {
+            cacheKey = QueryCache.buildKey(QueryCache.KIND_DB_MODEL_LIST, selector.getEntityType(), null, sqlInfo);
+            QueryCache.Entry entry = cache.get(cacheKey);
+            if (entry != null) {
+                cursor = ((QueryCache.Rows) entry.getValue()).toCursor();
+                cache = null;
+            } else {
+                cacheVersion = cache.getVersion(selector.getTableName());
+            }
+        }
+        if (cursor == null) {
+            cursor = execQuery(sqlInfo);
+        }
+        QueryCache.Rows rows = cache == null ? null : new QueryCache.Rows(cursor);
+
         List<DbModel> dbModelList = new ArrayList<DbModel>();
         try {
             while (cursor.moveToNext()) {
                 dbModelList.add(CursorUtils.getDbModel(cursor));
+                if (rows != null) {
+                    rows.add(cursor);
+                }
             }
         } catch (Exception e) {
             throw new DbException(e);
@@ -427,15 +1109,325 @@ public class DbUtils {
                 cursor = null;
             }
         }
+
+        if (rows != null) {
+            cache.put(selector.getTableName(), cacheKey, rows, rows.size(), cacheVersion);
+        }
         return dbModelList;
     }
 
+    //********************************************** aggregate *********************************************************
+
+    /**
+     * SELECT COUNT(*)，where条件同selector，忽略排序和limit/offset
+     */
+    public long count(Selector selector) throws DbException {
+        return queryForLong(selector, selector.toAggregateSqlInfo("COUNT(*)"));
+    }
+
+    public long count(Class<?> entityType) throws DbException {
+        return count(Selector.from(entityType));
+    }
+
+    /**
+     * SELECT EXISTS(SELECT 1 ... LIMIT 1)，找到第一行即返回
+     */
+    public boolean exists(Selector selector) throws DbException {
+        SqlInfo sqlInfo = selector.toAggregateSqlInfo("1");
+        sqlInfo.setSql("SELECT EXISTS(" + sqlInfo.getSql() + " LIMIT 1)");
+        return queryForLong(selector, sqlInfo) != 0;
+    }
+
+    /**
+     * 用SUM()求整数和：结果精确，溢出时抛出DbException；没有匹配行或都为NULL时返回0。
+     * 结果不是整数（REAL列或表达式）时抛出DbException，请用sumDouble
+     */
+    public long sum(Selector selector, String columnName) throws DbException {
+        Column column = TableUtils.getColumnOrId(selector.getEntityType(), columnName);
+        if (column != null && "REAL".equals(column.getDbType())) {
+            throw new DbException("column " + columnName + " is REAL, use sumDouble");
+        }
+        String result = (String) querySimple(selector, selector.toAggregateSqlInfo("SUM(" + columnName + ")"), false);
+        try {
+            return result == null ? 0 : Long.parseLong(result);
+        } catch (NumberFormatException e) {
+            throw new DbException("sum of " + columnName + " is not an integer: " + result, e);
+        }
+    }
+
+    /**
+     * 用TOTAL()求和：结果总是小数（INTEGER列也不会溢出，但超过2^53时不精确），没有匹配行或都为NULL时返回0
+     */
+    public double sumDouble(Selector selector, String columnName) throws DbException {
+        String result = (String) querySimple(selector, selector.toAggregateSqlInfo("TOTAL(" + columnName + ")"), false);
+        try {
+            return result == null ? 0 : Double.parseDouble(result);
+        } catch (NumberFormatException e) {
+            throw new DbException(e);
+        }
+    }
+
+    /**
+     * @param resultType 结果类型（基本类型及其包装类、String、Date等简单列类型，TEXT列也可以比较）
+     * @return 没有匹配行或都为NULL时返回null
+     * @throws DbException resultType不支持或结果不能转换为resultType时
+     */
+    public <T> T min(Selector selector, String columnName, Class<T> resultType) throws DbException {
+        return queryColumnValue(selector, "MIN(" + columnName + ")", resultType);
+    }
+
+    /**
+     * @see #min(Selector, String, Class)
+     */
+    public <T> T max(Selector selector, String columnName, Class<T> resultType) throws DbException {
+        return queryColumnValue(selector, "MAX(" + columnName + ")", resultType);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T queryColumnValue(Selector selector, String expression, Class<T> resultType) throws DbException {
+        if (!ColumnUtils.isSimpleColumnType(resultType)) {
+            throw new DbException("unsupported result type: " + resultType);
+        }
+        String result = (String) querySimple(selector, selector.toAggregateSqlInfo(expression), false);
+        if (result == null) {
+            return null;
+        }
+        try {
+            // valueStr2SimpleTypeFieldValue返回resultType（基本类型时为其包装类）的实例
+            return (T) ColumnUtils.valueStr2SimpleTypeFieldValue(resultType, result);
+        } catch (Exception e) {
+            throw new DbException(e);
+        }
+    }
+
+    private long queryForLong(Selector selector, SqlInfo sqlInfo) throws DbException {
+        return (Long) querySimple(selector, sqlInfo, true);
+    }
+
+    /**
+     * 用编译好的语句执行单行单列查询，不创建Cursor和DbModel。
+     * 写连接上的语句进入statementCache；使用WAL读连接时语句用完即关闭。
+     *
+     * @param asLong true: simpleQueryForLong, 返回Long；false: simpleQueryForString, 返回String，结果为NULL时返回null
+     */
+    private Object querySimple(Selector selector, SqlInfo sqlInfo, boolean asLong) throws DbException {
+        migrateBeforeRead(selector.getEntityType());
+        QueryCache cache = queryCache;
+        String cacheKey = null;
+        long cacheVersion = 0;
+        if (cache != null) {
+            cacheKey = QueryCache.buildKey(asLong ? QueryCache.KIND_AGGREGATE : QueryCache.KIND_AGGREGATE_TEXT,
+                    selector.getEntityType(), null, sqlInfo);
+            QueryCache.Entry entry = cache.get(cacheKey);
+            if (entry != null) {
+                return entry.getValue();
+            }
+            cacheVersion = cache.getVersion(selector.getTableName());
+        }
+
+        debugSql(sqlInfo.getSql());
+        Object result;
+        try {
+            SQLiteDatabase readDatabase = getReadDatabase();
+            if (readDatabase == database) {
+                SQLiteStatement statement = acquireStatement(sqlInfo.getSql());
+                try {
+                    bindArgs(statement, sqlInfo.getBindingArgs());
+                    result = asLong ? statement.simpleQueryForLong() : statement.simpleQueryForString();
+                } finally {
+                    releaseStatement(sqlInfo.getSql(), statement);
+                }
+            } else {
+                SQLiteStatement statement = readDatabase.compileStatement(sqlInfo.getSql());
+                try {
+                    bindArgs(statement, sqlInfo.getBindingArgs());
+                    result = asLong ? statement.simpleQueryForLong() : statement.simpleQueryForString();
+                } finally {
+                    statement.close();
+                }
+            }
+        } catch (Exception e) {
+            throw new DbException(e);
+        }
+
+        if (cache != null) {
+            cache.put(selector.getTableName(), cacheKey, result, 1, cacheVersion);
+        }
+        return result;
+    }
+
+    //******************************************** async operations ******************************************************
+
+    private DbAsyncExecutor asyncExecutor;
+
+    private synchronized DbAsyncExecutor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            SQLiteDatabase[] dbs = readDatabases;
+            asyncExecutor = new DbAsyncExecutor(this, dbs == null ? 1 : dbs.length);
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * 在写线程中执行task, 排队中的写操作合并到一个事务中提交, 回调在主线程中执行
+     */
+    public <T> void writeAsync(DbAsyncExecutor.DbTask<T> task, DbCallBack<T> callBack) {
+        getAsyncExecutor().submitWrite(task, callBack);
+    }
+
+    /**
+     * 在读线程中执行task, task在此前提交的写操作完成后执行, 回调在主线程中执行
+     */
+    public <T> void readAsync(DbAsyncExecutor.DbTask<T> task, DbCallBack<T> callBack) {
+        getAsyncExecutor().submitRead(task, callBack);
+    }
+
+    /**
+     * 阻塞直到此前提交的异步写操作全部完成
+     */
+    public void awaitAsyncWrites() throws DbException {
+        try {
+            getAsyncExecutor().awaitWrites();
+        } catch (InterruptedException e) {
+            throw new DbException(e);
+        }
+    }
+
+    public void saveAsync(final Object entity, DbCallBack<Void> callBack) {
+        writeAsync(new DbAsyncExecutor.DbTask<Void>() {
+            @Override
+            public Void execute(DbUtils db) throws DbException {
+                db.save(entity);
+                return null;
+            }
+        }, callBack);
+    }
+
+    public void saveBindingIdAsync(final Object entity, DbCallBack<Boolean> callBack) {
+        writeAsync(new DbAsyncExecutor.DbTask<Boolean>() {
+            @Override
+            public Boolean execute(DbUtils db) throws DbException {
+                return db.saveBindingId(entity);
+            }
+        }, callBack);
+    }
+
+    public void saveOrUpdateAsync(final Object entity, DbCallBack<Void> callBack) {
+        writeAsync(new DbAsyncExecutor.DbTask<Void>() {
+            @Override
+            public Void execute(DbUtils db) throws DbException {
+                db.saveOrUpdate(entity);
+                return null;
+            }
+        }, callBack);
+    }
+
+    public <T> void saveAllAsync(final Class<T> entityType, final Iterable<T> entities, DbCallBack<Integer> callBack) {
+        writeAsync(new DbAsyncExecutor.DbTask<Integer>() {
+            @Override
+            public Integer execute(DbUtils db) throws DbException {
+                return db.saveAll(entityType, entities);
+            }
+        }, callBack);
+    }
+
+    public void updateAsync(final Object entity, DbCallBack<Void> callBack) {
+        writeAsync(new DbAsyncExecutor.DbTask<Void>() {
+            @Override
+            public Void execute(DbUtils db) throws DbException {
+                db.update(entity);
+                return null;
+            }
+        }, callBack);
+    }
+
+    public void deleteAsync(final Object entity, DbCallBack<Void> callBack) {
+        writeAsync(new DbAsyncExecutor.DbTask<Void>() {
+            @Override
+            public Void execute(DbUtils db) throws DbException {
+                db.delete(entity);
+                return null;
+            }
+        }, callBack);
+    }
+
+    public void deleteAsync(final Class<?> entityType, final WhereBuilder whereBuilder, DbCallBack<Void> callBack) {
+        writeAsync(new DbAsyncExecutor.DbTask<Void>() {
+            @Override
+            public Void execute(DbUtils db) throws DbException {
+                db.delete(entityType, whereBuilder);
+                return null;
+            }
+        }, callBack);
+    }
+
+    public void execNonQueryAsync(final SqlInfo sqlInfo, DbCallBack<Void> callBack) {
+        writeAsync(new DbAsyncExecutor.DbTask<Void>() {
+            @Override
+            public Void execute(DbUtils db) throws DbException {
+                db.execNonQuery(sqlInfo);
+                return null;
+            }
+        }, callBack);
+    }
+
+    public <T> void findByIdAsync(final Class<T> entityType, final Object idValue, DbCallBack<T> callBack) {
+        readAsync(new DbAsyncExecutor.DbTask<T>() {
+            @Override
+            public T execute(DbUtils db) throws DbException {
+                return db.findById(entityType, idValue);
+            }
+        }, callBack);
+    }
+
+    public <T> void findFirstAsync(final Selector selector, DbCallBack<T> callBack) {
+        readAsync(new DbAsyncExecutor.DbTask<T>() {
+            @Override
+            public T execute(DbUtils db) throws DbException {
+                return db.findFirst(selector);
+            }
+        }, callBack);
+    }
+
+    public <T> void findAllAsync(final Selector selector, DbCallBack<List<T>> callBack) {
+        readAsync(new DbAsyncExecutor.DbTask<List<T>>() {
+            @Override
+            public List<T> execute(DbUtils db) throws DbException {
+                return db.findAll(selector);
+            }
+        }, callBack);
+    }
+
+    public void findDbModelFirstAsync(final DbModelSelector selector, DbCallBack<DbModel> callBack) {
+        readAsync(new DbAsyncExecutor.DbTask<DbModel>() {
+            @Override
+            public DbModel execute(DbUtils db) throws DbException {
+                return db.findDbModelFirst(selector);
+            }
+        }, callBack);
+    }
+
+    public void findDbModelAllAsync(final DbModelSelector selector, DbCallBack<List<DbModel>> callBack) {
+        readAsync(new DbAsyncExecutor.DbTask<List<DbModel>>() {
+            @Override
+            public List<DbModel> execute(DbUtils db) throws DbException {
+                return db.findDbModelAll(selector);
+            }
+        }, callBack);
+    }
+
     //******************************************** config ******************************************************
 
     public static class DaoConfig {
         private Context context;
         private String dbName = "xUtils.db"; // default db name
         private int dbVersion = 1;
+        private int statementCacheSize = 32; // default compiled statement count
+        private int bulkChunkSize = 500; // rows per transaction in saveAll
+        private boolean writeAheadLogging = false;
+        private boolean autoMigrate = false;
+        private Class<?>[] entityTypes;
+        private int readConnectionPoolSize = 2;
         private DbUpgradeListener dbUpgradeListener;
 
         public DaoConfig(Context context) {
@@ -462,6 +1454,77 @@ public class DbUtils {
             this.dbVersion = dbVersion;
         }
 
+        public int getStatementCacheSize() {
+            return statementCacheSize;
+        }
+
+        public void setStatementCacheSize(int statementCacheSize) {
+            if (statementCacheSize > 0) {
+                this.statementCacheSize = statementCacheSize;
+            }
+        }
+
+        public int getBulkChunkSize() {
+            return bulkChunkSize;
+        }
+
+        public void setBulkChunkSize(int bulkChunkSize) {
+            if (bulkChunkSize > 0) {
+                this.bulkChunkSize = bulkChunkSize;
+            }
+        }
+
+        public boolean isWriteAheadLogging() {
+            return writeAheadLogging;
+        }
+
+        /**
+         * 开启WAL后查询使用只读连接池，写操作使用单独的写连接，长时间的写事务不再阻塞查询。
+         * 需要API 11以上, 低版本忽略此设置。
+         */
+        public void setWriteAheadLogging(boolean writeAheadLogging) {
+            this.writeAheadLogging = writeAheadLogging;
+        }
+
+        public int getReadConnectionPoolSize() {
+            return readConnectionPoolSize;
+        }
+
+        /**
+         * WAL模式下只读连接的个数，为0时只开启WAL
+         */
+        public void setReadConnectionPoolSize(int readConnectionPoolSize) {
+            if (readConnectionPoolSize >= 0) {
+                this.readConnectionPoolSize = readConnectionPoolSize;
+            }
+        }
+
+        public boolean isAutoMigrate() {
+            return autoMigrate;
+        }
+
+        /**
+         * 默认关闭。开启时第一次读写实体的表（setEntityTypes中的实体在打开数据库时）自动补上新增的列和索引，
+         * 没有设置DbUpgradeListener时升级数据库版本不再删除所有表，而是保留数据并迁移。
+         * 新增的@Unique @NotNull列没有默认值时，已有的行用原来的rowid填充。
+         *
+         * @see com.lidroid.xutils.db.sqlite.SchemaMigrator
+         */
+        public void setAutoMigrate(boolean autoMigrate) {
+            this.autoMigrate = autoMigrate;
+        }
+
+        public Class<?>[] getEntityTypes() {
+            return entityTypes;
+        }
+
+        /**
+         * 打开数据库时就创建或迁移这些实体的表，而不是等到第一次写入
+         */
+        public void setEntityTypes(Class<?>... entityTypes) {
+            this.entityTypes = entityTypes;
+        }
+
         public DbUpgradeListener getDbUpgradeListener() {
             return dbUpgradeListener;
         }
@@ -493,8 +1556,12 @@ public class DbUtils {
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
             if (mDbUpgradeListener != null) {
                 mDbUpgradeListener.onUpgrade(db, oldVersion, newVersion);
+            } else if (config.isAutoMigrate()) {
+                LogUtils.d("upgrade " + oldVersion + " -> " + newVersion + ", tables will be migrated on first use");
             } else {
                 try {
+                    // getWritableDatabase()还没有返回
+                    DbUtils.this.database = db;
                     dropDb();
                 } catch (DbException e) {
                     LogUtils.e(e.getMessage(), e);
@@ -505,11 +1572,61 @@ public class DbUtils {
 
     //***************************** private operations with out transaction *****************************
     private void saveOrUpdateWithoutTransaction(Object entity) throws DbException {
-        if (TableUtils.hasPrimaryKeyValue(entity)) {
-            update(entity);
+        if (getLoadedColumnNames(entity) != null && TableUtils.hasPrimaryKeyValue(entity)) {
+            // 只查询了部分列的实体，整行写入会覆盖没有查询的列
+            updateWithoutTransaction(entity);
+        } else if (TableUtils.hasPrimaryKeyValue(entity)) {
+            createTableIfNotExist(entity.getClass());
+            upsertWithoutTransaction(entity);
         } else {
-            saveBindingId(entity);
+            saveBindingIdWithoutTransaction(entity);
+        }
+    }
+
+    /**
+     * 按主键插入或更新，更新时值为null的列保持原值。
+     * SQLite 3.24.0以下先按主键update，没有更新到行时再insert（不使用INSERT OR REPLACE：
+     * 它会删除与@Unique列冲突的其他行并触发级联删除）。
+     */
+    private void upsertWithoutTransaction(Object entity) throws DbException {
+        if (isUpsertSupported()) {
+            execNonQuery(SqlInfoBuilder.buildUpsertSqlInfo(this, entity, true));
+        } else if (execUpdateDelete(SqlInfoBuilder.buildUpdateByIdSqlInfo(this, entity)) == 0) {
+            execNonQuery(SqlInfoBuilder.buildUpsertSqlInfo(this, entity, false));
         }
+        refreshSnapshot(entity, null);
+        putIdentity(entity, TableUtils.getId(entity.getClass()).getColumnValue(entity));
+    }
+
+    /**
+     * null: 未检测
+     */
+    private Boolean upsertSupported;
+
+    /**
+     * INSERT ... ON CONFLICT DO UPDATE 需要SQLite 3.24.0以上
+     */
+    private boolean isUpsertSupported() {
+        if (upsertSupported == null) {
+            boolean supported = false;
+            SQLiteStatement statement = null;
+            try {
+                statement = database.compileStatement("SELECT sqlite_version()");
+                String version = statement.simpleQueryForString();
+                String[] parts = version.split("\\.");
+                int major = Integer.parseInt(parts[0]);
+                int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+                supported = major > 3 || (major == 3 && minor >= 24);
+            } catch (Exception e) {
+                LogUtils.e(e.getMessage(), e);
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+            upsertSupported = supported;
+        }
+        return upsertSupported;
     }
 
     private void saveWithoutTransaction(Object entity) throws DbException {
@@ -525,21 +1642,86 @@ public class DbUtils {
             ContentValues cv = new ContentValues();
             DbUtils.fillContentValues(cv, entityKvList);
             Long id = database.insert(table.getTableName(), null, cv);
+            invalidateQueryCacheTable(table.getTableName());
             if (id == -1) {
                 return false;
             }
             table.getId().setValue2Entity(entity, id.toString());
+            putIdentity(entity, id);
             return true;
         }
         return false;
     }
 
+    private void deleteByIdsWithoutTransaction(Class<?> entityType, Collection<?> idValues) throws DbException {
+        String idColumnName = Table.get(entityType).getId().getColumnName();
+        IdentityMap identityMap = identityMapHolder.get();
+        List<Object> chunk = new ArrayList<Object>(Math.min(idValues.size(), SqlInfo.MAX_BINDING_ARGS));
+        Iterator<?> iterator = idValues.iterator();
+        while (iterator.hasNext()) {
+            Object idValue = iterator.next();
+            if (idValue == null) {
+                throw new DbException("idValue is null");
+            }
+            chunk.add(idValue);
+            if (identityMap != null) {
+                identityMap.remove(entityType, idValue);
+            }
+            if (chunk.size() == SqlInfo.MAX_BINDING_ARGS || !iterator.hasNext()) {
+                execNonQuery(SqlInfoBuilder.buildDeleteSqlInfo(entityType, WhereBuilder.b(idColumnName, "IN", chunk)));
+                chunk.clear();
+            }
+        }
+    }
+
     private void deleteWithoutTransaction(Object entity) throws DbException {
         execNonQuery(SqlInfoBuilder.buildDeleteSqlInfo(entity));
+        DirtyTracker tracker = dirtyTracker;
+        if (tracker != null) {
+            tracker.remove(entity);
+        }
+        IdentityMap identityMap = identityMapHolder.get();
+        if (identityMap != null) {
+            identityMap.remove(entity.getClass(), Table.get(entity.getClass()).getId().getColumnValue(entity));
+        }
     }
 
     private void updateWithoutTransaction(Object entity) throws DbException {
-        execNonQuery(SqlInfoBuilder.buildUpdateSqlInfo(this, entity));
+        DirtyTracker tracker = dirtyTracker;
+        List<KeyValue> dirtyKeyValues = tracker == null ? null : tracker.getDirtyKeyValues(this, entity);
+        if (dirtyKeyValues == null) {
+            SqlInfo sqlInfo = SqlInfoBuilder.buildUpdateSqlInfo(entity, entity2LoadedKeyValueList(entity));
+            if (sqlInfo != null) {
+                execNonQuery(sqlInfo);
+            }
+        } else if (dirtyKeyValues.size() > 0) {
+            execNonQuery(SqlInfoBuilder.buildUpdateSqlInfo(entity, dirtyKeyValues));
+            List<String> columnNames = new ArrayList<String>(dirtyKeyValues.size());
+            for (KeyValue kv : dirtyKeyValues) {
+                columnNames.add(kv.getKey());
+            }
+            refreshSnapshot(entity, columnNames);
+        }
+        putIdentity(entity, Table.get(entity.getClass()).getId().getColumnValue(entity));
+    }
+
+    /**
+     * 同SqlInfoBuilder.entity2KeyValueList，只查询了部分列的实体只保留查询了的列（和主键）
+     */
+    private List<KeyValue> entity2LoadedKeyValueList(Object entity) {
+        List<KeyValue> keyValueList = SqlInfoBuilder.entity2KeyValueList(this, entity);
+        Set<String> loadedColumnNames = getLoadedColumnNames(entity);
+        if (loadedColumnNames != null) {
+            String idColumnName = Table.get(entity.getClass()).getId().getColumnName();
+            Iterator<KeyValue> iterator = keyValueList.iterator();
+            while (iterator.hasNext()) {
+                String key = iterator.next().getKey();
+                if (!loadedColumnNames.contains(key) && !key.equals(idColumnName)) {
+                    iterator.remove();
+                }
+            }
+        }
+        return keyValueList;
     }
 
     //************************************************ tools ***********************************
@@ -547,7 +1729,7 @@ public class DbUtils {
     private static void fillContentValues(ContentValues contentValues, List<KeyValue> list) {
         if (list != null && contentValues != null) {
             for (KeyValue kv : list) {
-                contentValues.put(kv.getKey(), kv.getValue().toString());
+                putContentValue(contentValues, kv.getKey(), kv.getValue());
             }
         } else {
             LogUtils.w("List<KeyValue> is empty or ContentValues is empty!");
@@ -555,43 +1737,155 @@ public class DbUtils {
 
     }
 
+    /**
+     * 按值的类型写入，数值不再以TEXT存储
+     */
+    private static void putContentValue(ContentValues contentValues, String key, Object value) {
+        if (value == null) {
+            contentValues.putNull(key);
+        } else if (value instanceof Long) {
+            contentValues.put(key, (Long) value);
+        } else if (value instanceof Integer) {
+            contentValues.put(key, (Integer) value);
+        } else if (value instanceof Short) {
+            contentValues.put(key, (Short) value);
+        } else if (value instanceof Byte) {
+            contentValues.put(key, (Byte) value);
+        } else if (value instanceof Double) {
+            contentValues.put(key, (Double) value);
+        } else if (value instanceof Float) {
+            contentValues.put(key, (Float) value);
+        } else if (value instanceof Number) {
+            contentValues.put(key, ((Number) value).longValue());
+        } else if (value instanceof byte[]) {
+            contentValues.put(key, (byte[]) value);
+        } else {
+            contentValues.put(key, value.toString());
+        }
+    }
+
+    /**
+     * 第一次使用时创建表，并创建@Index声明的索引（已有的表也会补上新声明的索引）。
+     * 不持有java锁：持有事务（数据库连接）的线程可能正在等这个锁，而执行DDL需要数据库连接。
+     * 多个线程可能同时执行，建表、建索引都是IF NOT EXISTS，迁移在SchemaMigrator的事务中检查。
+     */
     private void createTableIfNotExist(Class<?> entityType) throws DbException {
-        if (!tableIsExist(entityType)) {
+        String tableName = Table.get(entityType).getTableName();
+        if (schemaCatalog.isPrepared(tableName)) {
+            return;
+        }
+        if (!schemaCatalog.contains(tableName)) {
             SqlInfo sqlInfo = SqlInfoBuilder.buildCreateTableSqlInfo(entityType);
             execNonQuery(sqlInfo);
+            schemaCatalog.add(tableName);
+        } else if (config.isAutoMigrate() && SchemaMigrator.migrate(database, entityType, config.getBulkChunkSize())) {
+            invalidateQueryCacheTable(tableName);
+        }
+        for (SqlInfo indexSqlInfo : SqlInfoBuilder.buildCreateIndexSqlInfoList(entityType)) {
+            execNonQuery(indexSqlInfo);
         }
+        schemaCatalog.setPrepared(tableName);
     }
 
     public boolean tableIsExist(Class<?> entityType) throws DbException {
+        try {
+            return schemaCatalog.contains(Table.get(entityType).getTableName());
+        } catch (Exception e) {
+            throw new DbException(e);
+        }
+    }
+
+    /**
+     * 重新从sqlite_master加载已存在的表，用于在DbUtils之外（如getDatabase()）修改了表结构之后
+     */
+    public void reloadSchema() throws DbException {
+        try {
+            schemaCatalog.reload();
+        } catch (Exception e) {
+            throw new DbException(e);
+        }
+    }
+
+    /**
+     * 一次性迁移：把数值类型字段对应的列中以TEXT存储的数字（旧版本以字符串写入的值）转换为INTEGER/REAL。
+     * 只转换完整的数字字符串；声明为TEXT的列会把数字再转回TEXT，不受影响。
+     */
+    public void convertTextNumbers(Class<?> entityType) throws DbException {
+        if (!tableIsExist(entityType)) return;
         Table table = Table.get(entityType);
-        if (table.isCheckDatabase()) {
-            return true;
+
+        List<Column> columns = new ArrayList<Column>(table.columnMap.values());
+        columns.add(table.getId());
+        try {
+            beginTransaction();
+
+            for (Column column : columns) {
+                String dbType = column.getDbType();
+                boolean isInteger = "INTEGER".equals(dbType);
+                if (!isInteger && !"REAL".equals(dbType)) continue;
+
+                String columnName = "\"" + column.getColumnName() + "\"";
+                if (isInteger) {
+                    // 转换后再转回文本与原值相同才是完整的整数（排除'1-2'、'--5'、' 5'等）
+                    execNonQuery("UPDATE " + table.getTableName() +
+                            " SET " + columnName + "=CAST(" + columnName + " AS INTEGER)" +
+                            " WHERE typeof(" + columnName + ")='text'" +
+                            " AND CAST(CAST(" + columnName + " AS INTEGER) AS TEXT)=CAST(" + columnName + " AS TEXT)");
+                } else {
+                    convertTextReals(table.getTableName(), columnName);
+                }
+            }
+
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
         }
+    }
 
+    /**
+     * 小数转回文本的形式不唯一（'1.50'、'1e3'），不能像整数那样比较，在java中逐行解析
+     */
+    private void convertTextReals(String tableName, String columnName) throws DbException {
+        List<Long> rowIds = new ArrayList<Long>();
+        List<Double> values = new ArrayList<Double>();
         Cursor cursor = null;
         try {
-            cursor = execQuery("SELECT COUNT(*) AS c FROM sqlite_master WHERE type ='table' AND name ='" + table.getTableName() + "'");
-            if (cursor != null && cursor.moveToNext()) {
-                int count = cursor.getInt(0);
-                if (count > 0) {
-                    table.setCheckDatabase(true);
-                    return true;
+            String sql = "SELECT rowid," + columnName + " FROM " + tableName +
+                    " WHERE typeof(" + columnName + ")='text'" +
+                    " AND " + columnName + " GLOB '*[0-9]*'" +
+                    " AND " + columnName + " NOT GLOB '*[^0-9.eE+-]*'";
+            debugSql(sql);
+            cursor = database.rawQuery(sql, null);
+            while (cursor.moveToNext()) {
+                try {
+                    values.add(Double.valueOf(cursor.getString(1)));
+                    rowIds.add(cursor.getLong(0));
+                } catch (NumberFormatException ignored) {
+                    // 不是完整的数字，保持原值
                 }
             }
-
         } catch (Exception e) {
             throw new DbException(e);
         } finally {
             if (cursor != null) {
                 cursor.close();
-                cursor = null;
             }
         }
 
-        return false;
+        String sql = "UPDATE " + tableName + " SET " + columnName + "=? WHERE rowid=?";
+        for (int i = 0; i < rowIds.size(); i++) {
+            execNonQuery(new SqlInfo(sql, values.get(i), rowIds.get(i)));
+        }
     }
 
     public void dropDb() throws DbException {
+        synchronized (statementCache) {
+            statementCache.evictAll();
+        }
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
         Cursor cursor = null;
         try {
             cursor = execQuery("SELECT name FROM sqlite_master WHERE type ='table'");
@@ -615,6 +1909,57 @@ public class DbUtils {
     }
 
     ///////////////////////////////////// exec sql /////////////////////////////////////////////////////
+    /**
+     * 使sql修改的表的查询缓存失效，无法判断是哪张表时清空所有查询缓存
+     */
+    private void invalidateQueryCache(String sql) {
+        invalidateQueryCacheTable(QueryCache.getWriteTableName(sql));
+    }
+
+    /**
+     * 事务中修改过的表, 在最外层事务结束后再失效一次。
+     * key: 表名, null表示所有表
+     */
+    private final ThreadLocal<Set<String>> pendingInvalidTables = new ThreadLocal<Set<String>>();
+
+    /**
+     * 立即使表的查询缓存失效；当前线程在事务中时，提交前（WAL模式下）其他线程仍可能读到旧数据并放入缓存，
+     * 所以记录下来，在最外层事务结束后再失效一次。
+     *
+     * @param tableName 为null时清空所有查询缓存
+     */
+    private void invalidateQueryCacheTable(String tableName) {
+        QueryCache cache = queryCache;
+        if (cache == null) return;
+        cache.invalidate(tableName);
+        if (database.inTransaction()) {
+            Set<String> tables = pendingInvalidTables.get();
+            if (tables == null) {
+                tables = new HashSet<String>();
+                pendingInvalidTables.set(tables);
+            }
+            tables.add(tableName);
+        } else {
+            onTransactionEnded();
+        }
+    }
+
+    /**
+     * 在数据库事务结束(database.endTransaction())后调用：
+     * 当前线程不在事务中时，再次失效事务中修改过的表的查询缓存。
+     * 直接在getDatabase()上开启的事务，不调用这个方法时在下一次DbUtils写操作时才会处理。
+     */
+    public void onTransactionEnded() {
+        Set<String> tables = pendingInvalidTables.get();
+        if (tables == null || database.inTransaction()) return;
+        pendingInvalidTables.remove();
+        QueryCache cache = queryCache;
+        if (cache == null) return;
+        for (String tableName : tables) {
+            cache.invalidate(tableName);
+        }
+    }
+
     private void debugSql(String sql) {
         if (config != null && debug) {
             LogUtils.d(sql);
@@ -623,19 +1968,156 @@ public class DbUtils {
 
     private void beginTransaction() {
         if (allowTransaction) {
-            database.beginTransaction();
+            openTransaction();
         }
     }
 
     private void setTransactionSuccessful() {
         if (allowTransaction) {
-            database.setTransactionSuccessful();
+            TransactionState state = transactionStateHolder.get();
+            state.levels.set(state.levels.size() - 1, Boolean.TRUE);
         }
     }
 
     private void endTransaction() {
         if (allowTransaction) {
+            TransactionState state = transactionStateHolder.get();
+            closeTransaction(state.levels.get(state.levels.size() - 1));
+        }
+    }
+
+    /**
+     * 当前线程中由openTransaction()开启的事务
+     */
+    private static class TransactionState {
+
+        /**
+         * 各层事务是否成功
+         */
+        private final ArrayList<Boolean> levels = new ArrayList<Boolean>();
+
+        /**
+         * 有一层没有成功时，最外层结束时整个事务回滚
+         */
+        private boolean failed = false;
+
+        /**
+         * key: 事务中写入的实体
+         * value: 写入后的DirtyTracker快照，提交后生效
+         */
+        private final IdentityHashMap<Object, HashMap<String, Object>> snapshots = new IdentityHashMap<Object, HashMap<String, Object>>();
+
+        /**
+         * key: 事务中写入的实体
+         * value: 写入时的session缓存，提交后放入
+         */
+        private final IdentityHashMap<Object, IdentityMap> identityPuts = new IdentityHashMap<Object, IdentityMap>();
+    }
+
+    private final ThreadLocal<TransactionState> transactionStateHolder = new ThreadLocal<TransactionState>();
+
+    /**
+     * 开启事务（不受configAllowTransaction影响），必须在finally中调用closeTransaction。
+     * 事务中写入的实体的DirtyTracker快照在最外层事务提交后才更新，回滚时保留写入前的快照，重试时仍能找到修改的列。
+     */
+    public void openTransaction() {
+        database.beginTransaction();
+        TransactionState state = transactionStateHolder.get();
+        if (state == null) {
+            state = new TransactionState();
+            transactionStateHolder.set(state);
+        }
+        state.levels.add(Boolean.FALSE);
+    }
+
+    /**
+     * 结束openTransaction()开启的事务
+     *
+     * @param successful true: 提交（外层事务也成功时）；false: 回滚整个事务
+     */
+    public void closeTransaction(boolean successful) {
+        TransactionState state = transactionStateHolder.get();
+        if (state == null || state.levels.isEmpty()) {
+            throw new IllegalStateException("no transaction opened by openTransaction()");
+        }
+        state.levels.remove(state.levels.size() - 1);
+        if (!successful) {
+            state.failed = true;
+        }
+        try {
+            if (successful) {
+                database.setTransactionSuccessful();
+            }
             database.endTransaction();
+        } catch (RuntimeException e) {
+            state.failed = true;
+            throw e;
+        } finally {
+            if (state.levels.isEmpty()) {
+                transactionStateHolder.remove();
+                applySnapshots(state);
+            }
+            onTransactionEnded();
+        }
+    }
+
+    /**
+     * 最外层事务结束后更新快照：提交时使用写入后的快照，回滚时保留原快照；
+     * 外面还有直接在getDatabase()上开启的事务时不知道是否会提交，移除快照（之后update(entity)更新所有列）。
+     */
+    private void applySnapshots(TransactionState state) {
+        boolean inOuterTransaction = database.inTransaction();
+        if (!state.failed && !inOuterTransaction) {
+            for (Map.Entry<Object, IdentityMap> entry : state.identityPuts.entrySet()) {
+                Object entity = entry.getKey();
+                entry.getValue().put(entity.getClass(), Table.get(entity.getClass()).getId().getColumnValue(entity), entity);
+            }
+        }
+        DirtyTracker tracker = dirtyTracker;
+        if (tracker == null || state.snapshots.isEmpty()) return;
+        for (Map.Entry<Object, HashMap<String, Object>> entry : state.snapshots.entrySet()) {
+            if (inOuterTransaction) {
+                tracker.remove(entry.getKey());
+            } else if (!state.failed) {
+                tracker.replaceSnapshot(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 实体写入后放入当前session的缓存：在openTransaction()开启的事务中时等最外层事务提交后放入
+     */
+    private void putIdentity(Object entity, Object idValue) {
+        IdentityMap identityMap = identityMapHolder.get();
+        if (identityMap == null) return;
+        TransactionState state = transactionStateHolder.get();
+        if (state != null) {
+            state.identityPuts.put(entity, identityMap);
+        } else {
+            identityMap.put(entity.getClass(), idValue, entity);
+        }
+    }
+
+    /**
+     * 实体写入后更新它的DirtyTracker快照：
+     * 在openTransaction()开启的事务中时等最外层事务提交后更新，
+     * 在直接用getDatabase()开启的事务中时（不知道是否会提交）移除快照。
+     *
+     * @param columnNames 写入了的列，为null时为所有列
+     */
+    private void refreshSnapshot(Object entity, Collection<String> columnNames) {
+        DirtyTracker tracker = dirtyTracker;
+        if (tracker == null) return;
+        TransactionState state = transactionStateHolder.get();
+        if (state != null) {
+            HashMap<String, Object> snapshot = tracker.buildRefreshedSnapshot(entity, state.snapshots.get(entity), columnNames);
+            if (snapshot != null) {
+                state.snapshots.put(entity, snapshot);
+            }
+        } else if (database.inTransaction()) {
+            tracker.remove(entity);
+        } else {
+            tracker.refresh(entity, columnNames);
         }
     }
 
@@ -644,12 +2126,53 @@ public class DbUtils {
         debugSql(sqlInfo.getSql());
         try {
             if (sqlInfo.getBindingArgs() != null) {
-                database.execSQL(sqlInfo.getSql(), sqlInfo.getBindingArgsAsArray());
+                SQLiteStatement statement = acquireStatement(sqlInfo.getSql());
+                try {
+                    bindArgs(statement, sqlInfo.getBindingArgs());
+                    statement.execute();
+                } finally {
+                    releaseStatement(sqlInfo.getSql(), statement);
+                }
             } else {
                 database.execSQL(sqlInfo.getSql());
             }
         } catch (Exception e) {
             throw new DbException(e);
+        } finally {
+            if (schemaCatalog != null) {
+                schemaCatalog.onExecSql(sqlInfo.getSql());
+            }
+            invalidateQueryCache(sqlInfo.getSql());
+        }
+    }
+
+    /**
+     * @return 修改的行数
+     */
+    private int execUpdateDelete(SqlInfo sqlInfo) throws DbException {
+        debugSql(sqlInfo.getSql());
+        try {
+            SQLiteStatement statement = acquireStatement(sqlInfo.getSql());
+            try {
+                bindArgs(statement, sqlInfo.getBindingArgs());
+                if (Build.VERSION.SDK_INT >= 11) {
+                    return statement.executeUpdateDelete();
+                }
+                statement.execute();
+            } finally {
+                releaseStatement(sqlInfo.getSql(), statement);
+            }
+            // API 11以下只有一个数据库连接，changes()是上面的语句修改的行数
+            SQLiteStatement changes = acquireStatement("SELECT changes()");
+            try {
+                return (int) changes.simpleQueryForLong();
+            } finally {
+                releaseStatement("SELECT changes()", changes);
+            }
+        } catch (Exception e) {
+            throw new DbException(e);
+        } finally {
+            invalidateQueryCache(sqlInfo.getSql());
         }
     }
 
@@ -659,13 +2182,73 @@ public class DbUtils {
             database.execSQL(sql);
         } catch (Exception e) {
             throw new DbException(e);
+        } finally {
+            if (schemaCatalog != null) {
+                schemaCatalog.onExecSql(sql);
+            }
+            invalidateQueryCache(sql);
         }
     }
 
+    /**
+     * 从statementCache中取出语句（取出期间其他线程会编译新的语句），用完后调用releaseStatement放回。
+     * 执行语句时不能持有statementCache锁：执行需要数据库连接，而持有事务（连接）的线程可能正在等这个锁。
+     */
+    private SQLiteStatement acquireStatement(String sql) {
+        SQLiteStatement statement;
+        synchronized (statementCache) {
+            statement = statementCache.remove(sql);
+        }
+        return statement != null ? statement : database.compileStatement(sql);
+    }
+
+    /**
+     * 放回acquireStatement取出的语句，同一条sql已有缓存时关闭被替换的语句
+     */
+    private void releaseStatement(String sql, SQLiteStatement statement) {
+        synchronized (statementCache) {
+            statementCache.put(sql, statement);
+        }
+    }
+
+    private static void bindArgs(SQLiteProgram statement, List<Object> args) {
+        statement.clearBindings();
+        int index = 1;
+        for (Object arg : args) {
+            if (arg == null) {
+                statement.bindNull(index);
+            } else if (arg instanceof Double || arg instanceof Float) {
+                statement.bindDouble(index, ((Number) arg).doubleValue());
+            } else if (arg instanceof Number) {
+                statement.bindLong(index, ((Number) arg).longValue());
+            } else if (arg instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) arg);
+            } else {
+                statement.bindString(index, arg.toString());
+            }
+            index++;
+        }
+    }
+
+    /**
+     * 参数按类型绑定（rawQuery只能以字符串绑定参数）
+     */
     public Cursor execQuery(SqlInfo sqlInfo) throws DbException {
         debugSql(sqlInfo.getSql());
         try {
-            return database.rawQuery(sqlInfo.getSql(), sqlInfo.getBindingArgsAsStringArray());
+            SQLiteDatabase readDatabase = getReadDatabase();
+            final List<Object> bindingArgs = sqlInfo.getBindingArgs();
+            if (bindingArgs == null) {
+                return readDatabase.rawQuery(sqlInfo.getSql(), null);
+            }
+            return readDatabase.rawQueryWithFactory(new SQLiteDatabase.CursorFactory() {
+                @SuppressWarnings("deprecation")
+                @Override
+                public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+                    bindArgs(query, bindingArgs);
+                    return new SQLiteCursor(db, masterQuery, editTable, query);
+                }
+            }, sqlInfo.getSql(), null, null);
         } catch (Exception e) {
             throw new DbException(e);
         }
@@ -674,7 +2257,7 @@ public class DbUtils {
     public Cursor execQuery(String sql) throws DbException {
         debugSql(sql);
         try {
-            return database.rawQuery(sql, null);
+            return getReadDatabase().rawQuery(sql, null);
         } catch (Exception e) {
             throw new DbException(e);
         }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 索引，随表一起创建（CREATE INDEX IF NOT EXISTS）。
+ * 用在字段上时为这一列的索引；
+ * 用在实体类上时为columns指定的列的组合索引，多个组合索引使用@Indexes。
+ */
+@Target({ElementType.FIELD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Index {
+    /**
+     * 索引名，默认为 index_表名_列名(_列名...)
+     */
+    String name() default "";
+
+    /**
+     * 组合索引的列名，只在实体类上使用
+     */
+    String[] columns() default {};
+
+    boolean unique() default false;
+}
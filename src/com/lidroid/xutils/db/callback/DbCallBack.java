@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lidroid.xutils.db.callback;
+
+import com.lidroid.xutils.exception.DbException;
+
+/**
+ * DbUtils异步操作的回调, 在主线程中执行
+ *
+ * @param <T> 操作结果的类型
+ */
+public abstract class DbCallBack<T> {
+
+    public void onSuccess(T result) {
+    }
+
+    public void onFailure(DbException error, String msg) {
+    }
+}
@@ -16,41 +16,273 @@
 package com.lidroid.xutils.db.sqlite;
 
 import android.database.Cursor;
+import android.os.Build;
 import com.lidroid.xutils.DbUtils;
 import com.lidroid.xutils.db.table.Column;
 import com.lidroid.xutils.db.table.DbModel;
 import com.lidroid.xutils.db.table.Foreign;
 import com.lidroid.xutils.db.table.Table;
+import com.lidroid.xutils.exception.DbException;
 import com.lidroid.xutils.util.LogUtils;
 
+import java.util.*;
+
 public class CursorUtils {
 
-    @SuppressWarnings("unchecked")
     public static <T> T getEntity(DbUtils db, Cursor cursor, Class<T> entityType) {
-        try {
-            if (cursor != null) {
-                int columnCount = cursor.getColumnCount();
-                Table table = Table.get(entityType);
-                T entity = entityType.newInstance();
-                for (int i = 0; i < columnCount; i++) {
-                    String columnName = cursor.getColumnName(i);
-                    Column column = table.columnMap.get(columnName);
-                    if (column != null) {
-                        if (column instanceof Foreign) {
-                            ((Foreign) column).db = db;
+        if (cursor != null) {
+            return new EntityMapper<T>(db, cursor, entityType).map(cursor);
+        }
+        return null;
+    }
+
+    /**
+     * 每个cursor只解析一次列名与Column的对应关系，之后每一行直接按下标赋值。
+     */
+    public static class EntityMapper<T> {
+
+        private final DbUtils db;
+        private final Class<T> entityType;
+
+        /**
+         * index: cursor column index
+         * value: Column/Id or null if the column is not mapped
+         */
+        private final Column[] columns;
+
+        /**
+         * 主键列下标，-1表示没有查询主键
+         */
+        private int idIndex = -1;
+
+        /**
+         * 当前线程的一级缓存，没有开启session时为null
+         */
+        private final IdentityMap identityMap;
+
+        /**
+         * index: cursor column index
+         * value: 需要批量加载的外键列（Selector.fetch），其余为null
+         */
+        private Foreign[] fetchColumns;
+
+        /**
+         * 批量加载前暂存的行：与fetchColumns同下标，value: entity, 外键值
+         */
+        private List<Object>[] fetchEntities;
+        private List<String>[] fetchValues;
+
+        /**
+         * index: cursor column index
+         * value: SQLiteLazyLoader类型外键列的共享加载状态，其余为null
+         */
+        private SQLiteLazyLoader.BatchContext[] lazyContexts;
+
+        /**
+         * 开启configDirtyTracking时记录每个实体的快照，否则为null
+         */
+        private final DirtyTracker dirtyTracker;
+
+        /**
+         * index: cursor column index
+         * value: 实体的列名（不含主键），其余为null
+         */
+        private final String[] columnNames;
+
+        /**
+         * 实体的列数（不含主键）
+         */
+        private final int entityColumnCount;
+
+        /**
+         * cursor中包含的列名（不含主键），包含实体所有的列时为null
+         */
+        private final Set<String> partialColumnNames;
+
+        /**
+         * 不共享SQLiteLazyLoader的加载状态，用于单行或逐行遍历（DbUtils.iterate）的结果
+         */
+        public EntityMapper(DbUtils db, Cursor cursor, Class<T> entityType) {
+            this(db, cursor, entityType, null, false);
+        }
+
+        /**
+         * @param fetchNames 需要批量加载的外键列名或字段名，见 Selector.fetch
+         */
+        public EntityMapper(DbUtils db, Cursor cursor, Class<T> entityType, Collection<String> fetchNames) {
+            this(db, cursor, entityType, fetchNames, true);
+        }
+
+        /**
+         * @param batchLazyLoad 同一外键列的SQLiteLazyLoader是否共享BatchContext（第一次访问时一次加载所有行的关联实体）
+         */
+        @SuppressWarnings("unchecked")
+        public EntityMapper(DbUtils db, Cursor cursor, Class<T> entityType, Collection<String> fetchNames, boolean batchLazyLoad) {
+            this.db = db;
+            this.entityType = entityType;
+            this.identityMap = db == null ? null : db.getIdentityMap();
+            this.dirtyTracker = db == null ? null : db.getDirtyTracker();
+
+            Table table = Table.get(entityType);
+            Column id = table.getId();
+            int columnCount = cursor.getColumnCount();
+            this.columns = new Column[columnCount];
+            this.columnNames = new String[columnCount];
+            this.entityColumnCount = table.columnMap.size();
+            HashSet<String> loadedColumnNames = new HashSet<String>(columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                String columnName = cursor.getColumnName(i);
+                Column column = table.columnMap.get(columnName);
+                if (column != null) {
+                    loadedColumnNames.add(columnName);
+                    columnNames[i] = columnName;
+                    if (column instanceof Foreign) {
+                        Foreign foreign = (Foreign) column;
+                        if (fetchNames != null && foreign.isBatchLoadable() &&
+                                (fetchNames.contains(columnName) || fetchNames.contains(foreign.getColumnField().getName()))) {
+                            if (fetchColumns == null) {
+                                fetchColumns = new Foreign[columnCount];
+                                fetchEntities = new List[columnCount];
+                                fetchValues = new List[columnCount];
+                            }
+                            fetchColumns[i] = foreign;
+                            fetchEntities[i] = new ArrayList<Object>();
+                            fetchValues[i] = new ArrayList<String>();
+                            continue;
+                        }
+                        if (batchLazyLoad && foreign.isLazyLoader()) {
+                            if (lazyContexts == null) {
+                                lazyContexts = new SQLiteLazyLoader.BatchContext[columnCount];
+                            }
+                            lazyContexts[i] = new SQLiteLazyLoader.BatchContext(db, foreign);
+                            continue;
                         }
-                        column.setValue2Entity(entity, cursor.getString(i));
-                    } else if (columnName.equals(table.getId().getColumnName())) {
-                        table.getId().setValue2Entity(entity, cursor.getString(i));
+                    }
+                    columns[i] = column;
+                } else if (columnName.equals(id.getColumnName())) {
+                    columns[i] = id;
+                    idIndex = i;
+                }
+            }
+            this.partialColumnNames = loadedColumnNames.size() < table.columnMap.size() ?
+                    Collections.unmodifiableSet(loadedColumnNames) : null;
+        }
+
+        /**
+         * @return entity of the current row, or null if it can not be created
+         */
+        @SuppressWarnings("unchecked")
+        public T map(Cursor cursor) {
+            try {
+                String idStr = null;
+                if (identityMap != null && idIndex >= 0) {
+                    idStr = cursor.getString(idIndex);
+                    Object cached = identityMap.get(entityType, idStr);
+                    if (cached != null) {
+                        return (T) mapCached(cached, cursor);
                     }
                 }
+
+                T entity = entityType.newInstance();
+                fillEntity(entity, cursor, null);
+                if (idStr != null) {
+                    identityMap.put(entityType, idStr, entity);
+                }
+                if (partialColumnNames != null && db != null) {
+                    db.setLoadedColumnNames(entity, partialColumnNames);
+                }
+                if (dirtyTracker != null) {
+                    dirtyTracker.snapshot(entity, buildSnapshot(cursor, null));
+                }
                 return entity;
+            } catch (Exception e) {
+                LogUtils.e(e.getMessage(), e);
             }
-        } catch (Exception e) {
-            LogUtils.e(e.getMessage(), e);
+            return null;
         }
 
-        return null;
+        /**
+         * 一级缓存中的实例只查询了部分列，且不包含本次查询的所有列时，补上缺少的列
+         */
+        private Object mapCached(Object cached, Cursor cursor) {
+            Set<String> cachedColumnNames = db.getLoadedColumnNames(cached);
+            if (cachedColumnNames == null ||
+                    (partialColumnNames != null && cachedColumnNames.containsAll(partialColumnNames))) {
+                return cached;
+            }
+
+            fillEntity(cached, cursor, cachedColumnNames);
+            HashSet<String> mergedColumnNames = new HashSet<String>(cachedColumnNames);
+            for (String columnName : columnNames) {
+                if (columnName != null) {
+                    mergedColumnNames.add(columnName);
+                }
+            }
+            db.setLoadedColumnNames(cached, mergedColumnNames.size() < entityColumnCount ?
+                    Collections.unmodifiableSet(mergedColumnNames) : null);
+            if (dirtyTracker != null) {
+                dirtyTracker.mergeSnapshot(cached, buildSnapshot(cursor, cachedColumnNames));
+            }
+            return cached;
+        }
+
+        /**
+         * @param skipColumnNames 已赋值的列，为null时赋值所有列
+         */
+        private void fillEntity(Object entity, Cursor cursor, Set<String> skipColumnNames) {
+            for (int i = 0; i < columnNames.length; i++) {
+                if (skipColumnNames != null && (columnNames[i] == null || skipColumnNames.contains(columnNames[i]))) {
+                    continue;
+                }
+                if (columns[i] instanceof Foreign) {
+                    ((Foreign) columns[i]).setValue2Entity(db, entity, cursor.getString(i));
+                } else if (columns[i] != null) {
+                    columns[i].setValue2Entity(entity, cursor, i);
+                } else if (fetchColumns != null && fetchColumns[i] != null) {
+                    if (!cursor.isNull(i)) {
+                        fetchEntities[i].add(entity);
+                        fetchValues[i].add(cursor.getString(i));
+                    }
+                } else if (lazyContexts != null && lazyContexts[i] != null) {
+                    Foreign foreign = lazyContexts[i].getForeignColumn();
+                    foreign.setValue2Entity(db, entity, cursor.getString(i), lazyContexts[i]);
+                }
+            }
+        }
+
+        private HashMap<String, Object> buildSnapshot(Cursor cursor, Set<String> skipColumnNames) {
+            HashMap<String, Object> snapshot = new HashMap<String, Object>(columnNames.length);
+            for (int i = 0; i < columnNames.length; i++) {
+                if (columnNames[i] != null && (skipColumnNames == null || !skipColumnNames.contains(columnNames[i]))) {
+                    snapshot.put(columnNames[i], getValue(cursor, i));
+                }
+            }
+            return snapshot;
+        }
+
+        /**
+         * 为map过的所有实体批量加载Selector.fetch指定的关联实体，每个外键列每999个值一次查询。
+         */
+        public void fetchForeignEntities() throws DbException {
+            if (fetchColumns == null) return;
+            for (int i = 0; i < fetchColumns.length; i++) {
+                Foreign foreign = fetchColumns[i];
+                if (foreign == null || fetchEntities[i].isEmpty()) continue;
+
+                Map<String, List<Object>> foreignEntityMap = ForeignBatchLoader.load(db, foreign, fetchValues[i]);
+                List<Object> emptyList = Collections.emptyList();
+                for (int j = 0; j < fetchEntities[i].size(); j++) {
+                    List<Object> foreignEntities = foreignEntityMap.get(fetchValues[i].get(j));
+                    foreign.setForeignEntities2Entity(fetchEntities[i].get(j), foreignEntities == null ? emptyList : foreignEntities);
+                }
+                fetchEntities[i].clear();
+                fetchValues[i].clear();
+            }
+        }
+
+        public Class<T> getEntityType() {
+            return entityType;
+        }
     }
 
     public static DbModel getDbModel(Cursor cursor) {
@@ -59,9 +291,30 @@ public class CursorUtils {
             result = new DbModel();
             int columnCount = cursor.getColumnCount();
             for (int i = 0; i < columnCount; i++) {
-                result.add(cursor.getColumnName(i), cursor.getString(i));
+                result.add(cursor.getColumnName(i), getValue(cursor, i));
             }
         }
         return result;
     }
+
+    /**
+     * API 11以上按列的存储类型读取，否则读取字符串。
+     */
+    static Object getValue(Cursor cursor, int index) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            switch (cursor.getType(index)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    return null;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(index);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(index);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(index);
+                default:
+                    return cursor.getString(index);
+            }
+        }
+        return cursor.getString(index);
+    }
 }
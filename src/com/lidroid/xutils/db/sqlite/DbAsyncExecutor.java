@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import com.lidroid.xutils.DbUtils;
+import com.lidroid.xutils.db.callback.DbCallBack;
+import com.lidroid.xutils.exception.DbException;
+import com.lidroid.xutils.util.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DbUtils的异步执行器：
+ * 写操作由一个写线程按提交顺序执行, 排队中的写操作合并到同一个事务中提交；
+ * 读操作在读线程池中执行, 并等待在它之前提交的写操作完成；
+ * 回调在主线程中执行。
+ */
+public class DbAsyncExecutor {
+
+    /**
+     * 一个事务中最多合并的写操作个数
+     */
+    private static final int MAX_GROUP_SIZE = 256;
+
+    private final DbUtils db;
+    private final Handler mainHandler;
+    private final ExecutorService readExecutor;
+    private final BlockingQueue<WriteRequest<?>> writeQueue = new LinkedBlockingQueue<WriteRequest<?>>();
+
+    private long submittedWriteSeq = 0;
+    private long completedWriteSeq = 0;
+    private final Object seqLock = new Object();
+
+    private Thread writerThread;
+
+    public DbAsyncExecutor(DbUtils db, int readThreadCount) {
+        this.db = db;
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.readExecutor = Executors.newFixedThreadPool(Math.max(readThreadCount, 1), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "DbUtils reader #" + mCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 在DbUtils上执行的操作
+     */
+    public interface DbTask<T> {
+        T execute(DbUtils db) throws DbException;
+    }
+
+    public <T> void submitWrite(DbTask<T> task, DbCallBack<T> callBack) {
+        synchronized (seqLock) {
+            WriteRequest<T> request = new WriteRequest<T>(task, callBack, ++submittedWriteSeq);
+            ensureWriterThread();
+            writeQueue.add(request);
+        }
+    }
+
+    public <T> void submitRead(final DbTask<T> task, final DbCallBack<T> callBack) {
+        final long waitSeq;
+        synchronized (seqLock) {
+            waitSeq = submittedWriteSeq;
+        }
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    awaitWrites(waitSeq);
+                    postSuccess(callBack, task.execute(db));
+                } catch (DbException e) {
+                    postFailure(callBack, e);
+                } catch (InterruptedException e) {
+                    postFailure(callBack, new DbException(e));
+                } catch (Throwable e) {
+                    postFailure(callBack, new DbException(e));
+                }
+            }
+        });
+    }
+
+    /**
+     * 阻塞直到当前已提交的写操作全部完成
+     */
+    public void awaitWrites() throws InterruptedException {
+        long waitSeq;
+        synchronized (seqLock) {
+            waitSeq = submittedWriteSeq;
+        }
+        awaitWrites(waitSeq);
+    }
+
+    private void awaitWrites(long seq) throws InterruptedException {
+        synchronized (seqLock) {
+            while (completedWriteSeq < seq) {
+                seqLock.wait();
+            }
+        }
+    }
+
+    private void ensureWriterThread() {
+        if (writerThread == null) {
+            writerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    List<WriteRequest<?>> group = new ArrayList<WriteRequest<?>>();
+                    while (true) {
+                        try {
+                            group.add(writeQueue.take());
+                        } catch (InterruptedException e) {
+                            continue;
+                        }
+                        writeQueue.drainTo(group, MAX_GROUP_SIZE - 1);
+                        try {
+                            executeGroup(group);
+                        } catch (Throwable e) {
+                            for (WriteRequest<?> request : group) {
+                                if (!request.posted) {
+                                    if (request.error == null) {
+                                        request.error = new DbException(e);
+                                    }
+                                    request.postResult();
+                                }
+                            }
+                        } finally {
+                            synchronized (seqLock) {
+                                completedWriteSeq = group.get(group.size() - 1).seq;
+                                seqLock.notifyAll();
+                            }
+                            group.clear();
+                        }
+                    }
+                }
+            }, "DbUtils writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    /**
+     * 在一个事务中执行这组写操作；如果有操作失败则回滚, 再逐个在单独的事务中执行，
+     * 使失败只影响它自己。
+     */
+    private void executeGroup(List<WriteRequest<?>> group) {
+        if (group.size() > 1) {
+            boolean succeeded = false;
+            boolean began = false;
+            try {
+                db.openTransaction();
+                began = true;
+                for (WriteRequest<?> request : group) {
+                    request.execute();
+                }
+                succeeded = true;
+            } catch (Throwable e) {
+                LogUtils.d("group commit failed, retry one by one: " + e.getMessage());
+            } finally {
+                if (began) {
+                    try {
+                        db.closeTransaction(succeeded);
+                    } catch (Throwable e) {
+                        succeeded = false;
+                        LogUtils.e(e.getMessage(), e);
+                    }
+                }
+            }
+            if (succeeded) {
+                for (WriteRequest<?> request : group) {
+                    request.postResult();
+                }
+                return;
+            }
+        }
+
+        for (WriteRequest<?> request : group) {
+            boolean began = false;
+            try {
+                db.openTransaction();
+                began = true;
+                request.execute();
+            } catch (DbException e) {
+                request.error = e;
+            } catch (Throwable e) {
+                request.error = new DbException(e);
+            } finally {
+                if (began) {
+                    try {
+                        db.closeTransaction(request.error == null);
+                    } catch (Throwable e) {
+                        if (request.error == null) {
+                            request.error = new DbException(e);
+                        }
+                    }
+                }
+            }
+            request.postResult();
+        }
+    }
+
+    private <T> void postSuccess(final DbCallBack<T> callBack, final T result) {
+        if (callBack == null) return;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callBack.onSuccess(result);
+            }
+        });
+    }
+
+    private void postFailure(final DbCallBack<?> callBack, final DbException error) {
+        if (callBack == null) {
+            LogUtils.e(error.getMessage(), error);
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callBack.onFailure(error, error.getMessage());
+            }
+        });
+    }
+
+    private class WriteRequest<T> {
+        private final DbTask<T> task;
+        private final DbCallBack<T> callBack;
+        private final long seq;
+        private T result;
+        private DbException error;
+        private boolean posted = false;
+
+        private WriteRequest(DbTask<T> task, DbCallBack<T> callBack, long seq) {
+            this.task = task;
+            this.callBack = callBack;
+            this.seq = seq;
+        }
+
+        private void execute() throws DbException {
+            result = task.execute(db);
+        }
+
+        private void postResult() {
+            posted = true;
+            if (error == null) {
+                postSuccess(callBack, result);
+            } else {
+                postFailure(callBack, error);
+            }
+        }
+    }
+}
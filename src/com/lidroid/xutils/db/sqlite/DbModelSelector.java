@@ -86,42 +86,64 @@ public class DbModelSelector {
         return this;
     }
 
-    @Override
-    public String toString() {
-        StringBuffer result = new StringBuffer();
-        result.append("SELECT ");
+    public Class<?> getEntityType() {
+        return selector.getEntityType();
+    }
+
+    public String getTableName() {
+        return selector.tableName;
+    }
+
+    /**
+     * @return 条件值用 ? 占位的查询语句及其参数
+     */
+    public SqlInfo toSqlInfo() {
+        SqlInfo result = new SqlInfo();
+        StringBuffer sql = new StringBuffer();
+        sql.append("SELECT ");
         if (columnExpressions != null && columnExpressions.length > 0) {
             for (int i = 0; i < columnExpressions.length; i++) {
-                result.append(columnExpressions[i]);
-                result.append(",");
+                sql.append(columnExpressions[i]);
+                sql.append(",");
             }
-            result.deleteCharAt(result.length() - 1);
+            sql.deleteCharAt(sql.length() - 1);
         } else {
             if (groupByColumnName != null && groupByColumnName.length() > 0) {
-                result.append(groupByColumnName);
+                sql.append(groupByColumnName);
             } else {
-                result.append("*");
+                sql.append("*");
             }
         }
-        result.append(" FROM ").append(selector.tableName);
-        if (selector.whereBuilder != null) {
-            result.append(" WHERE ").append(selector.whereBuilder.toString());
+        sql.append(" FROM ").append(selector.tableName);
+        WhereBuilder where = selector.buildWhereBuilder();
+        if (where != null) {
+            sql.append(" WHERE ").append(where.getSql());
+            result.addValues(where.getBindingArgs());
         }
         if (groupByColumnName != null && groupByColumnName.length() > 0) {
-            result.append(" GROUP BY ").append(groupByColumnName);
-            if (having != null) {
-                result.append(" HAVING ").append(having.toString());
+            sql.append(" GROUP BY ").append(groupByColumnName);
+            if (having != null && having.getWhereItemSize() > 0) {
+                sql.append(" HAVING ").append(having.getSql());
+                result.addValues(having.getBindingArgs());
             }
         }
-        if (selector.orderByList != null) {
-            for (int i = 0; i < selector.orderByList.size(); i++) {
-                result.append(" ORDER BY ").append(selector.orderByList.get(i).toString());
-            }
+        String orderBySql = selector.buildOrderBySql();
+        if (orderBySql != null) {
+            sql.append(" ORDER BY ").append(orderBySql);
         }
         if (selector.limit > 0) {
-            result.append(" LIMIT ").append(selector.limit);
-            result.append(" OFFSET ").append(selector.offset);
+            sql.append(" LIMIT ").append(selector.limit);
+            sql.append(" OFFSET ").append(selector.offset);
         }
-        return result.toString();
+        result.setSql(sql.toString());
+        return result;
+    }
+
+    /**
+     * @return 参数以字面量形式写入的查询语句
+     */
+    @Override
+    public String toString() {
+        return toSqlInfo().getInlineSql();
     }
 }
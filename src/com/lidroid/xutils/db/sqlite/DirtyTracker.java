@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import com.lidroid.xutils.DbUtils;
+import com.lidroid.xutils.db.table.*;
+
+import java.util.*;
+
+/**
+ * 记录通过DbUtils查询出的实体各列的值（快照），
+ * update(entity)时只更新与快照不同的列，关联实体与快照相同时不再级联saveOrUpdate。
+ * 实体被回收后快照自动移除；只记录查询中包含的列。
+ */
+public class DirtyTracker {
+
+    /**
+     * key: entity（按对象标识比较的弱引用）
+     * value: (key: columnName, value: 查询出的值)
+     */
+    private final WeakIdentityMap<HashMap<String, Object>> snapshotMap = new WeakIdentityMap<HashMap<String, Object>>();
+
+    public void snapshot(Object entity, HashMap<String, Object> columnValues) {
+        snapshotMap.put(entity, columnValues);
+    }
+
+    /**
+     * 实体补充查询了其他列时，把这些列合并到已有的快照中；没有快照时不记录
+     */
+    public synchronized void mergeSnapshot(Object entity, HashMap<String, Object> columnValues) {
+        HashMap<String, Object> snapshot = snapshotMap.get(entity);
+        if (snapshot != null) {
+            HashMap<String, Object> merged = new HashMap<String, Object>(snapshot);
+            merged.putAll(columnValues);
+            snapshotMap.put(entity, merged);
+        }
+    }
+
+    public boolean isTracked(Object entity) {
+        return snapshotMap.containsKey(entity);
+    }
+
+    public void remove(Object entity) {
+        snapshotMap.remove(entity);
+    }
+
+    public void clear() {
+        snapshotMap.clear();
+    }
+
+    /**
+     * 移除entityType的实体的快照，之后update(entity)更新所有列
+     */
+    public void clear(Class<?> entityType) {
+        snapshotMap.removeByType(entityType);
+    }
+
+    /**
+     * @return 与快照不同的列（外键列会按需级联保存关联实体），没有快照时返回null
+     */
+    public List<KeyValue> getDirtyKeyValues(DbUtils db, Object entity) {
+        HashMap<String, Object> snapshot = getSnapshot(entity);
+        if (snapshot == null) return null;
+
+        List<KeyValue> result = new ArrayList<KeyValue>();
+        Table table = Table.get(entity.getClass());
+        for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            Column column = table.columnMap.get(entry.getKey());
+            if (column == null) continue;
+            Object value = getColumnValueOrDefault(column, column instanceof Foreign ?
+                    ((Foreign) column).getColumnValue(db, entity) :
+                    column.getColumnValue(entity));
+            if (!valueEquals(value, entry.getValue())) {
+                result.add(new KeyValue(entry.getKey(), value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 实体与快照是否不同，没有快照时返回true；不会级联保存关联实体
+     */
+    public boolean isDirty(Object entity) {
+        HashMap<String, Object> snapshot = getSnapshot(entity);
+        if (snapshot == null) return true;
+
+        Table table = Table.get(entity.getClass());
+        for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            Column column = table.columnMap.get(entry.getKey());
+            if (column == null) continue;
+            if (!valueEquals(getCurrentValue(column, entity), entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 实体写入数据库（已提交）后，用实体当前的值更新快照
+     */
+    public void refresh(Object entity) {
+        refresh(entity, null);
+    }
+
+    /**
+     * @param columnNames 写入了的列，为null时更新所有列
+     */
+    public void refresh(Object entity, Collection<String> columnNames) {
+        replaceSnapshot(entity, buildRefreshedSnapshot(entity, null, columnNames));
+    }
+
+    /**
+     * 用实体当前的值构造新的快照，不修改已记录的快照；用于在事务提交后再调用replaceSnapshot。
+     *
+     * @param base        在base的基础上更新，为null时使用已记录的快照
+     * @param columnNames 写入了的列，为null时更新所有列
+     * @return 没有快照时返回null
+     */
+    public HashMap<String, Object> buildRefreshedSnapshot(Object entity, HashMap<String, Object> base, Collection<String> columnNames) {
+        HashMap<String, Object> snapshot = base != null ? base : getSnapshot(entity);
+        if (snapshot == null) return null;
+
+        Table table = Table.get(entity.getClass());
+        HashMap<String, Object> newSnapshot = new HashMap<String, Object>(snapshot);
+        for (String columnName : snapshot.keySet()) {
+            if (columnNames != null && !columnNames.contains(columnName)) continue;
+            Column column = table.columnMap.get(columnName);
+            if (column == null) continue;
+            newSnapshot.put(columnName, getCurrentValue(column, entity));
+        }
+        return newSnapshot;
+    }
+
+    /**
+     * 替换已记录的快照；实体没有快照（如期间被删除）时不记录
+     */
+    public synchronized void replaceSnapshot(Object entity, HashMap<String, Object> snapshot) {
+        if (snapshot != null && snapshotMap.containsKey(entity)) {
+            snapshotMap.put(entity, snapshot);
+        }
+    }
+
+    private HashMap<String, Object> getSnapshot(Object entity) {
+        return snapshotMap.get(entity);
+    }
+
+    private static Object getCurrentValue(Column column, Object entity) {
+        Object value = column instanceof Foreign ?
+                ((Foreign) column).getForeignKeyValue(entity) :
+                column.getColumnValue(entity);
+        return getColumnValueOrDefault(column, value);
+    }
+
+    private static Object getColumnValueOrDefault(Column column, Object value) {
+        return value == null ? column.getDbDefaultValue() : value;
+    }
+
+    /**
+     * 快照中的值来自cursor（API 11以下都是字符串），实体中的值可能是其他数值类型
+     */
+    private static boolean valueEquals(Object value, Object snapshotValue) {
+        if (value == null || snapshotValue == null) {
+            return value == snapshotValue;
+        }
+        if (value instanceof byte[] || snapshotValue instanceof byte[]) {
+            return value instanceof byte[] && snapshotValue instanceof byte[] &&
+                    Arrays.equals((byte[]) value, (byte[]) snapshotValue);
+        }
+        if (value instanceof Number && snapshotValue instanceof Number) {
+            if (isIntegral(value) && isIntegral(snapshotValue)) {
+                return ((Number) value).longValue() == ((Number) snapshotValue).longValue();
+            }
+            return ((Number) value).doubleValue() == ((Number) snapshotValue).doubleValue();
+        }
+        return value.toString().equals(snapshotValue.toString());
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+}
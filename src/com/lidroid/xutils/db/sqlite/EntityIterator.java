@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import android.database.Cursor;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 基于cursor的查询结果迭代器，每次next()时才把当前行转换为实体，
+ * 不会一次把所有实体加载到内存中。
+ * 遍历结束时自动关闭cursor，提前结束遍历时需调用close()。
+ */
+public class EntityIterator<T> implements Iterator<T>, Iterable<T>, Closeable {
+
+    private final Cursor cursor;
+    private final CursorUtils.EntityMapper<T> mapper;
+
+    private boolean moved;
+    private boolean hasNext;
+    private boolean closed;
+
+    public EntityIterator(Cursor cursor, CursorUtils.EntityMapper<T> mapper) {
+        this.cursor = cursor;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!moved) {
+            hasNext = cursor.moveToNext();
+            moved = true;
+            if (!hasNext) {
+                close();
+            }
+        }
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        moved = false;
+        return mapper.map(cursor);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import com.lidroid.xutils.DbUtils;
+import com.lidroid.xutils.db.table.Column;
+import com.lidroid.xutils.db.table.ColumnUtils;
+import com.lidroid.xutils.db.table.Foreign;
+import com.lidroid.xutils.db.table.TableUtils;
+import com.lidroid.xutils.exception.DbException;
+
+import java.util.*;
+
+/**
+ * 用 WHERE foreign IN (...) 一次查询多个外键值对应的关联实体，代替每行一次的查询。
+ */
+public class ForeignBatchLoader {
+
+    private ForeignBatchLoader() {
+    }
+
+    /**
+     * @param db
+     * @param foreignColumn
+     * @param valueStrs     外键值（字符串形式）
+     * @return key: 外键值（字符串形式）, value: 对应的关联实体
+     * @throws DbException
+     */
+    public static Map<String, List<Object>> load(DbUtils db, Foreign foreignColumn, Collection<String> valueStrs) throws DbException {
+        Map<String, List<Object>> result = new HashMap<String, List<Object>>();
+        if (valueStrs == null || valueStrs.isEmpty()) return result;
+
+        Class<?> foreignEntityType = ColumnUtils.getForeignEntityType(foreignColumn);
+        String foreignColumnName = foreignColumn.getForeignColumnName();
+        Column targetColumn = TableUtils.getColumnOrId(foreignEntityType, foreignColumnName);
+        Class<?> targetType = targetColumn.getColumnField().getType();
+
+        List<Object> values = new ArrayList<Object>(SqlInfo.MAX_BINDING_ARGS);
+        Iterator<String> iterator = new LinkedHashSet<String>(valueStrs).iterator();
+        while (iterator.hasNext()) {
+            values.add(ColumnUtils.valueStr2SimpleTypeFieldValue(targetType, iterator.next()));
+            if (values.size() == SqlInfo.MAX_BINDING_ARGS || !iterator.hasNext()) {
+                List<?> entities = db.findAll(Selector.from(foreignEntityType).where(WhereBuilder.b(foreignColumnName, "IN", values)));
+                for (Object entity : entities) {
+                    Object key = targetColumn.getColumnValue(entity);
+                    if (key == null) continue;
+                    String keyStr = key.toString();
+                    List<Object> group = result.get(keyStr);
+                    if (group == null) {
+                        group = new ArrayList<Object>();
+                        result.put(keyStr, group);
+                    }
+                    group.add(entity);
+                }
+                values.clear();
+            }
+        }
+        return result;
+    }
+}
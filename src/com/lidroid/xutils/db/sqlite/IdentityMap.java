@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import com.lidroid.xutils.db.table.ColumnUtils;
+
+import java.util.HashMap;
+
+/**
+ * 一级缓存：同一个session中，同一(实体类型, 主键)只创建一个实体实例。
+ * 由 DbUtils.beginSession()/endSession() 管理，只在创建它的线程中使用。
+ */
+public class IdentityMap {
+
+    /**
+     * key: entityType
+     * value: (key: id value string, value: entity)
+     */
+    private final HashMap<Class<?>, HashMap<String, Object>> entityMap = new HashMap<Class<?>, HashMap<String, Object>>();
+
+    /**
+     * session嵌套层数
+     */
+    private int depth;
+
+    public Object get(Class<?> entityType, Object idValue) {
+        if (idValue == null) return null;
+        HashMap<String, Object> map = entityMap.get(entityType);
+        return map == null ? null : map.get(toKey(idValue));
+    }
+
+    public void put(Class<?> entityType, Object idValue, Object entity) {
+        if (idValue == null || entity == null) return;
+        HashMap<String, Object> map = entityMap.get(entityType);
+        if (map == null) {
+            map = new HashMap<String, Object>();
+            entityMap.put(entityType, map);
+        }
+        map.put(toKey(idValue), entity);
+    }
+
+    public void remove(Class<?> entityType, Object idValue) {
+        if (idValue == null) return;
+        HashMap<String, Object> map = entityMap.get(entityType);
+        if (map != null) {
+            map.remove(toKey(idValue));
+        }
+    }
+
+    public void clear(Class<?> entityType) {
+        entityMap.remove(entityType);
+    }
+
+    public void clear() {
+        entityMap.clear();
+    }
+
+    /**
+     * @return 进入后的session嵌套层数
+     */
+    public int enterSession() {
+        return ++depth;
+    }
+
+    /**
+     * @return 退出后的session嵌套层数，为0时session结束
+     */
+    public int exitSession() {
+        return --depth;
+    }
+
+    private static String toKey(Object idValue) {
+        return String.valueOf(ColumnUtils.convert2DbColumnValueIfNeeded(idValue));
+    }
+}
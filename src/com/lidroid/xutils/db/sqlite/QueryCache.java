@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import com.lidroid.xutils.util.core.LruMemoryCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * 查询结果缓存，key由结果类型、实体类型、fetch的外键和参数写入后的查询语句组成（见buildKey）。
+ * 对某张表的写操作会使这张表的所有缓存结果失效。
+ * 缓存的大小按结果的行数计算（不是内存字节数），宽表应相应地设置较小的maxSize。
+ * 实体和DbModel的查询只缓存行（Rows），每次命中都重新创建实例，关联实体也重新（经过各自表的缓存）加载。
+ */
+public class QueryCache {
+
+    public static final String KIND_ENTITY = "entity";
+    public static final String KIND_ENTITY_LIST = "entityList";
+    public static final String KIND_DB_MODEL = "dbModel";
+    public static final String KIND_DB_MODEL_LIST = "dbModelList";
+    public static final String KIND_AGGREGATE = "aggregate";
+    public static final String KIND_AGGREGATE_TEXT = "aggregateText";
+
+    /**
+     * key: buildKey()
+     * value: 查询结果
+     */
+    private final LruMemoryCache<String, Entry> mMemoryCache;
+
+    /**
+     * key: table name
+     * value: 这张表的查询结果的key
+     */
+    private final HashMap<String, HashSet<String>> tableKeyMap = new HashMap<String, HashSet<String>>();
+
+    /**
+     * key: table name
+     * value: 写操作计数，用于丢弃与写操作并发的查询结果
+     */
+    private final HashMap<String, Long> tableVersionMap = new HashMap<String, Long>();
+
+    private long globalVersion;
+
+    /**
+     * @param maxSize 最多缓存的行数（每个结果至少按1行计算）
+     */
+    public QueryCache(int maxSize) {
+        mMemoryCache = new LruMemoryCache<String, Entry>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.size;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+                if (newValue == null) {
+                    synchronized (QueryCache.this) {
+                        HashSet<String> keys = tableKeyMap.get(oldValue.tableName);
+                        if (keys != null) {
+                            keys.remove(key);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * 相同的sql可能对应不同类型的结果（findAll与findDbModelAll）或不同的实体类（映射到同一张表），
+     * fetch的外键不同时结果也不同，所以都要放进key中。
+     *
+     * @param kind       KIND_*
+     * @param fetchNames 可以为null
+     */
+    public static String buildKey(String kind, Class<?> entityType, Collection<String> fetchNames, SqlInfo sqlInfo) {
+        StringBuilder key = new StringBuilder();
+        key.append(kind).append('|').append(entityType == null ? "" : entityType.getName()).append('|');
+        if (fetchNames != null && fetchNames.size() > 0) {
+            key.append(fetchNames);
+        }
+        key.append('|').append(sqlInfo.getInlineSql());
+        return key.toString();
+    }
+
+    public Entry get(String key) {
+        return mMemoryCache.get(key);
+    }
+
+    /**
+     * 在查询前调用，把返回值传给put
+     */
+    public synchronized long getVersion(String tableName) {
+        tableName = normalize(tableName);
+        Long version = tableVersionMap.get(tableName);
+        return globalVersion + (version == null ? 0 : version);
+    }
+
+    /**
+     * @param version 查询前getVersion的返回值，期间表被修改过时不缓存
+     * @param size    结果的行数
+     */
+    public synchronized void put(String tableName, String key, Object value, int size, long version) {
+        if (version != getVersion(tableName)) return;
+        tableName = normalize(tableName);
+        HashSet<String> keys = tableKeyMap.get(tableName);
+        if (keys == null) {
+            keys = new HashSet<String>();
+            tableKeyMap.put(tableName, keys);
+        }
+        keys.add(key);
+        mMemoryCache.put(key, new Entry(tableName, value, Math.max(size, 1)));
+    }
+
+    /**
+     * @param tableName 为null时清空所有缓存
+     */
+    public synchronized void invalidate(String tableName) {
+        if (tableName == null) {
+            invalidateAll();
+            return;
+        }
+        tableName = normalize(tableName);
+        Long version = tableVersionMap.get(tableName);
+        tableVersionMap.put(tableName, version == null ? 1 : version + 1);
+        HashSet<String> keys = tableKeyMap.remove(tableName);
+        if (keys != null) {
+            for (String key : keys) {
+                mMemoryCache.remove(key);
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        globalVersion++;
+        tableKeyMap.clear();
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * @return INSERT/REPLACE/UPDATE/DELETE/DROP TABLE语句修改的表名，无法判断时返回null
+     */
+    public static String getWriteTableName(String sql) {
+        if (sql == null) return null;
+        String[] tokens = sql.trim().split("[\\s(]+");
+        int index;
+        String first = tokens.length > 0 ? tokens[0].toUpperCase(Locale.US) : "";
+        if ("INSERT".equals(first) || "REPLACE".equals(first)) {
+            index = indexOf(tokens, "INTO") + 1;
+        } else if ("UPDATE".equals(first)) {
+            index = tokens.length > 2 && "OR".equalsIgnoreCase(tokens[1]) ? 3 : 1;
+        } else if ("DELETE".equals(first)) {
+            index = indexOf(tokens, "FROM") + 1;
+        } else if ("DROP".equals(first) && tokens.length > 2 && "TABLE".equalsIgnoreCase(tokens[1])) {
+            index = tokens.length > 4 && "IF".equalsIgnoreCase(tokens[2]) ? 4 : 2;
+        } else {
+            return null;
+        }
+        if (index <= 0 || index >= tokens.length) return null;
+        String tableName = tokens[index];
+        if (tableName.length() > 1 && (tableName.charAt(0) == '"' || tableName.charAt(0) == '`' || tableName.charAt(0) == '[')) {
+            tableName = tableName.substring(1, tableName.length() - 1);
+        }
+        return tableName;
+    }
+
+    private static String normalize(String tableName) {
+        return tableName.toLowerCase(Locale.US);
+    }
+
+    private static int indexOf(String[] tokens, String keyword) {
+        for (int i = 0; i < tokens.length; i++) {
+            if (keyword.equalsIgnoreCase(tokens[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 查询结果的行的副本，toCursor()返回可重复读取的cursor
+     */
+    public static class Rows {
+        private final String[] columnNames;
+        private final ArrayList<Object[]> rowList = new ArrayList<Object[]>();
+
+        public Rows(Cursor cursor) {
+            columnNames = new String[cursor.getColumnCount()];
+            for (int i = 0; i < columnNames.length; i++) {
+                columnNames[i] = cursor.getColumnName(i);
+            }
+        }
+
+        /**
+         * 复制cursor的当前行
+         */
+        public void add(Cursor cursor) {
+            Object[] row = new Object[columnNames.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = CursorUtils.getValue(cursor, i);
+            }
+            rowList.add(row);
+        }
+
+        public int size() {
+            return rowList.size();
+        }
+
+        /**
+         * byte[]复制后放入，调用者修改读出的值不影响缓存
+         */
+        public Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(columnNames, rowList.size());
+            for (Object[] row : rowList) {
+                Object[] copy = row.clone();
+                for (int i = 0; i < copy.length; i++) {
+                    if (copy[i] instanceof byte[]) {
+                        copy[i] = ((byte[]) copy[i]).clone();
+                    }
+                }
+                cursor.addRow(copy);
+            }
+            return cursor;
+        }
+    }
+
+    public static class Entry {
+        private final String tableName;
+        private final Object value;
+        private final int size;
+
+        private Entry(String tableName, Object value, int size) {
+            this.tableName = tableName;
+            this.value = value;
+            this.size = size;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+}
@@ -15,16 +15,22 @@
 
 package com.lidroid.xutils.db.sqlite;
 
+import com.lidroid.xutils.DbUtils;
 import com.lidroid.xutils.db.table.ColumnUtils;
 import com.lidroid.xutils.db.table.Foreign;
 import com.lidroid.xutils.db.table.TableUtils;
 import com.lidroid.xutils.exception.DbException;
 import com.lidroid.xutils.util.LogUtils;
 
-import java.util.List;
+import java.util.*;
 
 public class SQLiteLazyLoader<T> {
 
+    /**
+     * 用来查询关联实体，为null时查询抛出DbException
+     */
+    private DbUtils db;
+
     private Class<T> foreignEntityType;
 
     private String foreignColumnName;
@@ -32,9 +38,23 @@ public class SQLiteLazyLoader<T> {
 
     private String valueStr;
 
-    @SuppressWarnings("unchecked")
+    private BatchContext batchContext;
+
+    /**
+     * @deprecated 没有DbUtils不能查询关联实体，使用 SQLiteLazyLoader(DbUtils, Class, String, Object)
+     */
+    @Deprecated
     public SQLiteLazyLoader(Class<?> entityType, String columnName, Object value) {
+        throw new UnsupportedOperationException("use SQLiteLazyLoader(DbUtils, Class, String, Object)");
+    }
 
+    /**
+     * @param db 用来查询关联实体
+     */
+    @SuppressWarnings("unchecked")
+    public SQLiteLazyLoader(DbUtils db, Class<?> entityType, String columnName, Object value) {
+
+        this.db = db;
         this.foreignColumn = (Foreign) TableUtils.getColumnOrId(entityType, columnName);
         this.foreignColumnName = this.foreignColumn.getForeignColumnName();
 
@@ -45,9 +65,18 @@ public class SQLiteLazyLoader<T> {
         foreignEntityType = (Class<T>) ColumnUtils.getForeignEntityType(foreignColumn);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * @deprecated Foreign不再保存DbUtils，使用 SQLiteLazyLoader(DbUtils, Foreign, String)
+     */
+    @Deprecated
     public SQLiteLazyLoader(Foreign foreignColumn, String valueStr) {
+        throw new UnsupportedOperationException("use SQLiteLazyLoader(DbUtils, Foreign, String)");
+    }
 
+    @SuppressWarnings("unchecked")
+    public SQLiteLazyLoader(DbUtils db, Foreign foreignColumn, String valueStr) {
+
+        this.db = db;
         this.foreignColumn = foreignColumn;
         this.foreignColumnName = foreignColumn.getForeignColumnName();
         this.valueStr = valueStr;
@@ -55,24 +84,55 @@ public class SQLiteLazyLoader<T> {
         foreignEntityType = (Class<T>) ColumnUtils.getForeignEntityType(foreignColumn);
     }
 
+    /**
+     * @param batchContext 同一次查询创建的loader共享，首次加载时一次查询所有loader的关联实体
+     */
+    public SQLiteLazyLoader(DbUtils db, Foreign foreignColumn, String valueStr, BatchContext batchContext) {
+        this(db, foreignColumn, valueStr);
+        this.batchContext = batchContext;
+        if (batchContext != null && valueStr != null) {
+            batchContext.register(valueStr);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
     public List<T> getAllFromDb() throws DbException {
         List<T> entities = null;
-        if (foreignColumn != null && foreignColumn.db != null) {
+        if (batchContext != null && valueStr != null) {
+            entities = new ArrayList<T>((List<T>) batchContext.take(valueStr));
+            batchContext = null; // 之后的访问直接查询数据库
+        } else if (foreignColumn != null) {
             Object columnValue = this.getColumnValue();
-            entities = foreignColumn.db.findAll(Selector.from(foreignEntityType).where(WhereBuilder.b(foreignColumnName, "=", columnValue)));
+            entities = requireDb().findAll(Selector.from(foreignEntityType).where(WhereBuilder.b(foreignColumnName, "=", columnValue)));
         }
         return entities;
     }
 
+    @SuppressWarnings("unchecked")
     public T getFirstFromDb() throws DbException {
         T entity = null;
-        if (foreignColumn != null && foreignColumn.db != null) {
+        if (batchContext != null && valueStr != null) {
+            List<Object> entities = batchContext.take(valueStr);
+            batchContext = null;
+            entity = entities.size() > 0 ? (T) entities.get(0) : null;
+        } else if (foreignColumn != null) {
             Object columnValue = this.getColumnValue();
-            entity = foreignColumn.db.findFirst(Selector.from(foreignEntityType).where(WhereBuilder.b(foreignColumnName, "=", columnValue)));
+            if (foreignColumnName.equals(TableUtils.getPrimaryKeyColumnName(foreignEntityType))) {
+                // 关联的是主键时，开启session后可直接从一级缓存中取得
+                return requireDb().findById(foreignEntityType, columnValue);
+            }
+            entity = requireDb().findFirst(Selector.from(foreignEntityType).where(WhereBuilder.b(foreignColumnName, "=", columnValue)));
         }
         return entity;
     }
 
+    private DbUtils requireDb() throws DbException {
+        if (db == null) {
+            throw new DbException("no DbUtils to load " + foreignEntityType);
+        }
+        return db;
+    }
+
     public Object getColumnValue() {
         if (foreignColumn != null) {
             try {
@@ -85,4 +145,74 @@ public class SQLiteLazyLoader<T> {
         }
         return null;
     }
+
+    /**
+     * 同一次查询中同一外键列的所有loader共享的加载状态：
+     * 第一次访问时用一条 IN (...) 查询加载所有已登记外键值的关联实体。
+     * 每个外键值的加载结果在登记了它的loader都取走后移除，loader取走后不再使用BatchContext。
+     */
+    public static class BatchContext {
+
+        private final DbUtils db;
+        private final Foreign foreignColumn;
+
+        /**
+         * 已登记但还没有加载的外键值
+         */
+        private final Set<String> pendingValueStrs = new LinkedHashSet<String>();
+
+        /**
+         * key: 外键值
+         * value: 关联实体
+         */
+        private final Map<String, List<Object>> loadedMap = new HashMap<String, List<Object>>();
+
+        /**
+         * key: 外键值
+         * value: 登记了这个值且还没有取走结果的loader个数
+         */
+        private final Map<String, Integer> referenceCountMap = new HashMap<String, Integer>();
+
+        public BatchContext(DbUtils db, Foreign foreignColumn) {
+            this.db = db;
+            this.foreignColumn = foreignColumn;
+        }
+
+        public Foreign getForeignColumn() {
+            return foreignColumn;
+        }
+
+        public synchronized void register(String valueStr) {
+            Integer count = referenceCountMap.get(valueStr);
+            referenceCountMap.put(valueStr, count == null ? 1 : count + 1);
+            if (!loadedMap.containsKey(valueStr)) {
+                pendingValueStrs.add(valueStr);
+            }
+        }
+
+        /**
+         * 取走valueStr对应的关联实体，每个登记过的loader只能调用一次
+         */
+        public synchronized List<Object> take(String valueStr) throws DbException {
+            List<Object> result = loadedMap.get(valueStr);
+            if (result == null) {
+                pendingValueStrs.add(valueStr);
+                Map<String, List<Object>> entityMap = ForeignBatchLoader.load(db, foreignColumn, pendingValueStrs);
+                for (String pending : pendingValueStrs) {
+                    List<Object> entities = entityMap.get(pending);
+                    loadedMap.put(pending, entities == null ? new ArrayList<Object>(0) : entities);
+                }
+                pendingValueStrs.clear();
+                result = loadedMap.get(valueStr);
+            }
+            Integer count = referenceCountMap.get(valueStr);
+            if (count == null || count <= 1) {
+                referenceCountMap.remove(valueStr);
+                loadedMap.remove(valueStr);
+            } else {
+                referenceCountMap.put(valueStr, count - 1);
+            }
+            return result;
+        }
+    }
 }
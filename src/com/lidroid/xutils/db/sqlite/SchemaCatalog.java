@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个数据库中已存在的表：打开数据库时用一次查询加载，之后随DbUtils建表、删表更新。
+ * 表名不区分大小写。
+ */
+public class SchemaCatalog {
+
+    /**
+     * key: 小写的表名
+     * value: 是否已在本次运行中检查过实体声明的索引等
+     */
+    private final ConcurrentHashMap<String, Boolean> tableMap = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * 执行了无法跟踪的DDL（ALTER TABLE），下次查询前重新加载
+     */
+    private volatile boolean stale = true;
+
+    private final SQLiteDatabase database;
+
+    public SchemaCatalog(SQLiteDatabase database) {
+        this.database = database;
+    }
+
+    public boolean contains(String tableName) {
+        reloadIfStale();
+        return tableMap.containsKey(normalize(tableName));
+    }
+
+    /**
+     * @return 表存在，并且已调用过setPrepared
+     */
+    public boolean isPrepared(String tableName) {
+        reloadIfStale();
+        return Boolean.TRUE.equals(tableMap.get(normalize(tableName)));
+    }
+
+    public void setPrepared(String tableName) {
+        tableMap.put(normalize(tableName), Boolean.TRUE);
+    }
+
+    public void add(String tableName) {
+        tableMap.putIfAbsent(normalize(tableName), Boolean.FALSE);
+    }
+
+    public void remove(String tableName) {
+        tableMap.remove(normalize(tableName));
+    }
+
+    public void clear() {
+        tableMap.clear();
+    }
+
+    /**
+     * 根据DbUtils执行的sql更新：DROP TABLE时移除这张表，ALTER TABLE时标记为需要重新加载
+     */
+    public void onExecSql(String sql) {
+        if (sql == null) return;
+        String trimmed = sql.trim();
+        if (trimmed.regionMatches(true, 0, "DROP", 0, 4)) {
+            String tableName = QueryCache.getWriteTableName(trimmed);
+            if (tableName != null) {
+                remove(tableName);
+            }
+        } else if (trimmed.regionMatches(true, 0, "ALTER", 0, 5)) {
+            stale = true;
+        }
+    }
+
+    /**
+     * 从sqlite_master重新加载
+     */
+    public void reload() {
+        stale = true;
+        reloadIfStale();
+    }
+
+    /**
+     * 不加锁：查询需要数据库连接，持有事务的线程可能正在等这个锁。
+     * 并发的重新加载结果相同；加载期间add()的表可能被移除，之后建表用的是IF NOT EXISTS，只会多执行一次。
+     */
+    private void reloadIfStale() {
+        if (!stale) return;
+        stale = false;
+        HashSet<String> tableNames = new HashSet<String>();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+            while (cursor.moveToNext()) {
+                tableNames.add(normalize(cursor.getString(0)));
+            }
+        } catch (RuntimeException e) {
+            stale = true;
+            throw e;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        tableMap.keySet().retainAll(tableNames);
+        for (String tableName : tableNames) {
+            tableMap.put(tableName, Boolean.FALSE);
+        }
+    }
+
+    private static String normalize(String tableName) {
+        return tableName.toLowerCase(Locale.US);
+    }
+}
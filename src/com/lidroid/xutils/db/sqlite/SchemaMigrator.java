@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import com.lidroid.xutils.db.table.*;
+import com.lidroid.xutils.exception.DbException;
+import com.lidroid.xutils.util.LogUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 对比实体的列与PRAGMA table_info, 自动迁移已存在的表：
+ * 缺少的列用ALTER TABLE ADD COLUMN添加；
+ * 不能直接添加的列（主键、UNIQUE、没有默认值的NOT NULL）需要重建表，
+ * 重建时按原表的rowid分批复制数据, 每批一个事务，中断后下次从已复制的位置继续；
+ * 原表上的触发器记录复制期间被修改、删除、插入的行，每批复制前重新复制这些行；
+ * 复制违反约束时放弃重建（删除替换表和进度），原表不变，下次按当时的实体定义重新开始。
+ * 只做增加，不删除实体中已不存在的列。
+ */
+public class SchemaMigrator {
+
+    private static final String REBUILD_TABLE_SUFFIX = "__migrating";
+
+    /**
+     * 复制期间原表中变化的行：src_rowid为原表的rowid，target_key为这一行复制到替换表后的rowid
+     */
+    private static final String LOG_TABLE_SUFFIX = "__migrating_log";
+
+    /**
+     * 已复制到的原表rowid
+     */
+    private static final String STATE_TABLE_SUFFIX = "__migrating_state";
+
+    private static final String[] TRIGGER_EVENTS = {"INSERT", "UPDATE", "DELETE"};
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * @param batchSize 重建表时每个事务复制的行数
+     * @return 表结构是否有变化
+     */
+    public static boolean migrate(SQLiteDatabase database, Class<?> entityType, int batchSize) throws DbException {
+        Table table = Table.get(entityType);
+        String tableName = table.getTableName();
+        String rebuildTableName = tableName + REBUILD_TABLE_SUFFIX;
+
+        HashSet<String> existingColumns;
+        boolean rebuild;
+        List<Column> missingColumns = new ArrayList<Column>();
+        // 在事务中检查并添加列：多个线程可能同时迁移同一张表（DbUtils不持有java锁）
+        database.beginTransaction();
+        try {
+            existingColumns = getColumnNames(database, tableName);
+            if (existingColumns.isEmpty()) {
+                return false;
+            }
+
+            rebuild = !existingColumns.contains(normalize(table.getId().getColumnName()))
+                    || !getColumnNames(database, rebuildTableName).isEmpty();
+            for (Column column : table.columnMap.values()) {
+                if (!existingColumns.contains(normalize(column.getColumnName()))) {
+                    missingColumns.add(column);
+                    rebuild |= !canAddColumn(column);
+                }
+            }
+
+            if (rebuild) {
+                prepareRebuild(database, entityType, existingColumns);
+            } else {
+                for (Column column : missingColumns) {
+                    String sql = "ALTER TABLE " + tableName + " ADD COLUMN " + SqlInfoBuilder.buildColumnDefinition(column);
+                    LogUtils.d(sql);
+                    database.execSQL(sql);
+                }
+            }
+            database.setTransactionSuccessful();
+        } catch (DbException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DbException(e);
+        } finally {
+            database.endTransaction();
+        }
+
+        if (!rebuild) {
+            return missingColumns.size() > 0;
+        }
+        try {
+            rebuildTable(database, entityType, existingColumns, batchSize);
+            return true;
+        } catch (DbException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DbException(e);
+        }
+    }
+
+    /**
+     * ALTER TABLE ADD COLUMN 不支持 UNIQUE，NOT NULL 必须有默认值
+     */
+    private static boolean canAddColumn(Column column) {
+        if (ColumnUtils.isUnique(column.getColumnField())) {
+            return false;
+        }
+        return !ColumnUtils.isNotNull(column.getColumnField()) || column.getDbDefaultValue() != null;
+    }
+
+    /**
+     * 创建替换表、记录变化的表和触发器（在检查表结构的事务中执行）；
+     * 已在重建时（上次中断或其他线程正在重建）继续使用，旧版本留下的没有进度的替换表重新创建。
+     */
+    private static void prepareRebuild(SQLiteDatabase database, Class<?> entityType, HashSet<String> existingColumns) throws DbException {
+        Table table = Table.get(entityType);
+        String tableName = table.getTableName();
+        String rebuildTableName = tableName + REBUILD_TABLE_SUFFIX;
+        String logTableName = tableName + LOG_TABLE_SUFFIX;
+        String stateTableName = tableName + STATE_TABLE_SUFFIX;
+        if (!getColumnNames(database, stateTableName).isEmpty()) {
+            return;
+        }
+
+        LogUtils.d("rebuild table " + tableName);
+        database.execSQL("DROP TABLE IF EXISTS " + rebuildTableName);
+        database.execSQL("DROP TABLE IF EXISTS " + logTableName);
+        database.execSQL(SqlInfoBuilder.buildCreateTableSqlInfo(entityType, rebuildTableName).getSql());
+        database.execSQL("CREATE TABLE " + logTableName + " (src_rowid INTEGER PRIMARY KEY, target_key INTEGER)");
+        database.execSQL("CREATE TABLE " + stateTableName + " (last_rowid INTEGER)");
+        database.execSQL("INSERT INTO " + stateTableName + " (last_rowid) VALUES (0)");
+
+        // 同一行多次变化时保留第一次记录的target_key，即它已复制到替换表中的位置
+        String targetKeyColumn = getTargetKeyColumn(table, existingColumns);
+        for (String event : TRIGGER_EVENTS) {
+            String triggerName = getTriggerName(tableName, event);
+            StringBuilder sql = new StringBuilder();
+            sql.append("DROP TRIGGER IF EXISTS ").append(triggerName);
+            database.execSQL(sql.toString());
+
+            sql.setLength(0);
+            sql.append("CREATE TRIGGER ").append(triggerName)
+                    .append(" AFTER ").append(event).append(" ON ").append(tableName).append(" BEGIN");
+            if (!"INSERT".equals(event)) {
+                appendLogInsert(sql, logTableName, "old", targetKeyColumn);
+            }
+            if (!"DELETE".equals(event)) {
+                appendLogInsert(sql, logTableName, "new", targetKeyColumn);
+            }
+            sql.append(" END");
+            database.execSQL(sql.toString());
+        }
+    }
+
+    private static String getTriggerName(String tableName, String event) {
+        return "\"" + tableName + REBUILD_TABLE_SUFFIX + "_" + event.toLowerCase(Locale.US) + "\"";
+    }
+
+    /**
+     * 删除替换表、记录变化的表、进度和触发器，原表不变
+     */
+    private static void discardRebuild(SQLiteDatabase database, String tableName) {
+        database.beginTransaction();
+        try {
+            for (String event : TRIGGER_EVENTS) {
+                database.execSQL("DROP TRIGGER IF EXISTS " + getTriggerName(tableName, event));
+            }
+            database.execSQL("DROP TABLE IF EXISTS " + tableName + REBUILD_TABLE_SUFFIX);
+            database.execSQL("DROP TABLE IF EXISTS " + tableName + LOG_TABLE_SUFFIX);
+            database.execSQL("DROP TABLE IF EXISTS " + tableName + STATE_TABLE_SUFFIX);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static void appendLogInsert(StringBuilder sql, String logTableName, String row, String targetKeyColumn) {
+        sql.append(" INSERT OR IGNORE INTO ").append(logTableName).append(" (src_rowid, target_key) VALUES (")
+                .append(row).append(".rowid,").append(row).append(".").append(targetKeyColumn).append(");");
+    }
+
+    /**
+     * @return 原表中决定替换表rowid的列：自增主键（rowid的别名）为主键列，原表没有主键列时和其他表一样为rowid
+     */
+    private static String getTargetKeyColumn(Table table, HashSet<String> existingColumns) {
+        Id id = table.getId();
+        if (id.isAutoIncreaseType() && existingColumns.contains(normalize(id.getColumnName()))) {
+            return "\"" + id.getColumnName() + "\"";
+        }
+        return "rowid";
+    }
+
+    /**
+     * 每批一个事务：先重新复制上一批之后变化的行，再复制下一批；没有可复制的行时在同一个事务中替换原表。
+     * 多个线程同时迁移时各自从记录的进度继续，替换原表后其他线程结束。
+     */
+    private static void rebuildTable(SQLiteDatabase database, Class<?> entityType, HashSet<String> existingColumns, int batchSize) throws DbException {
+        Table table = Table.get(entityType);
+        String tableName = table.getTableName();
+        String rebuildTableName = tableName + REBUILD_TABLE_SUFFIX;
+        String logTableName = tableName + LOG_TABLE_SUFFIX;
+        String stateTableName = tableName + STATE_TABLE_SUFFIX;
+
+        // 自增主键是替换表的rowid：原表有主键列时复制主键，没有时用原表的rowid作为主键；其他表显式复制rowid
+        Id id = table.getId();
+        boolean copyRowId = !id.isAutoIncreaseType();
+        StringBuilder targetColumns = new StringBuilder(copyRowId ? "rowid" : "");
+        StringBuilder sourceColumns = new StringBuilder(copyRowId ? "rowid" : "");
+        List<Column> columns = new ArrayList<Column>(table.columnMap.values());
+        columns.add(0, id);
+        for (Column column : columns) {
+            String sourceColumn;
+            if (existingColumns.contains(normalize(column.getColumnName()))) {
+                sourceColumn = "\"" + column.getColumnName() + "\"";
+            } else if (column == id && !copyRowId) {
+                sourceColumn = "rowid";
+            } else if (column.getDbDefaultValue() != null) {
+                sourceColumn = SqlInfo.toLiteral(column.getDbDefaultValue());
+            } else if (ColumnUtils.isUnique(column.getColumnField())) {
+                // 每行相同的值违反UNIQUE，用原表的rowid填充（NULL不违反UNIQUE）
+                if (!ColumnUtils.isNotNull(column.getColumnField())) {
+                    continue;
+                }
+                sourceColumn = "TEXT".equals(column.getDbType()) ? "CAST(rowid AS TEXT)" : "rowid";
+            } else if (ColumnUtils.isNotNull(column.getColumnField())) {
+                sourceColumn = "TEXT".equals(column.getDbType()) ? "''" : "0";
+            } else {
+                continue;
+            }
+            if (targetColumns.length() > 0) {
+                targetColumns.append(",");
+                sourceColumns.append(",");
+            }
+            targetColumns.append("\"").append(column.getColumnName()).append("\"");
+            sourceColumns.append(sourceColumn);
+        }
+
+        String copySql = "INSERT INTO " + rebuildTableName + " (" + targetColumns + ") SELECT " + sourceColumns + " FROM " + tableName;
+        String nextRowIdSql = "SELECT IFNULL(MAX(rowid),?) FROM (SELECT rowid FROM " + tableName +
+                " WHERE rowid>? ORDER BY rowid LIMIT " + Math.max(batchSize, 1) + ")";
+
+        while (true) {
+            boolean finished = false;
+            SQLiteConstraintException constraintException = null;
+            database.beginTransaction();
+            try {
+                if (getColumnNames(database, stateTableName).isEmpty()) {
+                    // 其他线程已完成
+                    database.setTransactionSuccessful();
+                    return;
+                }
+                long lastRowId = queryForLong(database, "SELECT last_rowid FROM " + stateTableName);
+
+                // 已复制的行中变化了的：删除复制的结果再重新复制，已删除的行不再复制
+                database.execSQL("DELETE FROM " + rebuildTableName + " WHERE rowid IN (SELECT target_key FROM " + logTableName + ")");
+                database.execSQL(copySql + " WHERE rowid IN (SELECT src_rowid FROM " + logTableName + ") AND rowid<=?",
+                        new Object[]{lastRowId});
+                database.execSQL("DELETE FROM " + logTableName);
+
+                long nextRowId = queryForLong(database, nextRowIdSql, lastRowId, lastRowId);
+                if (nextRowId > lastRowId) {
+                    database.execSQL(copySql + " WHERE rowid>? AND rowid<=?", new Object[]{lastRowId, nextRowId});
+                    database.execSQL("UPDATE " + stateTableName + " SET last_rowid=?", new Object[]{nextRowId});
+                } else {
+                    database.execSQL("DROP TABLE " + tableName); // 同时删除触发器
+                    database.execSQL("ALTER TABLE " + rebuildTableName + " RENAME TO " + tableName);
+                    database.execSQL("DROP TABLE " + logTableName);
+                    database.execSQL("DROP TABLE " + stateTableName);
+                    finished = true;
+                }
+                database.setTransactionSuccessful();
+            } catch (SQLiteConstraintException e) {
+                constraintException = e;
+            } catch (Exception e) {
+                throw new DbException(e);
+            } finally {
+                database.endTransaction();
+            }
+            if (constraintException != null) {
+                // 重试不会成功：放弃重建，修改实体定义（如添加默认值）后下次重新开始
+                discardRebuild(database, tableName);
+                throw new DbException("rebuild table " + tableName + " violates a constraint, migration discarded", constraintException);
+            }
+            if (finished) break;
+        }
+    }
+
+    private static long queryForLong(SQLiteDatabase database, String sql, long... args) {
+        SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                statement.bindLong(i + 1, args[i]);
+            }
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return 小写的列名，表不存在时为空
+     */
+    private static HashSet<String> getColumnNames(SQLiteDatabase database, String tableName) {
+        HashSet<String> result = new HashSet<String>();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                result.add(normalize(cursor.getString(nameIndex)));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return result;
+    }
+
+    private static String normalize(String columnName) {
+        return columnName.toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import com.lidroid.xutils.db.table.Column;
+import com.lidroid.xutils.db.table.Id;
+import com.lidroid.xutils.db.table.Table;
+import com.lidroid.xutils.db.table.TableUtils;
+
+import java.io.Serializable;
+
+/**
+ * 分页的游标（keyset/seek pagination），代替 LIMIT OFFSET 翻页:
+ * <pre>
+ * SeekToken token = SeekToken.first("time", true);
+ * List&lt;Msg&gt; page = db.findAll(Selector.from(Msg.class).after(token).limit(20));
+ * token = token.next(page.get(page.size() - 1));
+ * </pre>
+ * 排序列需NOT NULL，且最好建有索引；排序列不唯一时会再按主键排序。
+ */
+public class SeekToken implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String columnName;
+    private final boolean desc;
+
+    private final boolean started;
+    private final Object lastValue;
+    private final Object lastIdValue;
+
+    private SeekToken(String columnName, boolean desc, boolean started, Object lastValue, Object lastIdValue) {
+        this.columnName = columnName;
+        this.desc = desc;
+        this.started = started;
+        this.lastValue = lastValue;
+        this.lastIdValue = lastIdValue;
+    }
+
+    /**
+     * 第一页的token，只确定排序
+     */
+    public static SeekToken first(String columnName, boolean desc) {
+        return new SeekToken(columnName, desc, false, null, null);
+    }
+
+    /**
+     * 从lastValue之后开始，columnName需是唯一列（如主键）
+     */
+    public static SeekToken after(String columnName, boolean desc, Object lastValue) {
+        return new SeekToken(columnName, desc, true, lastValue, null);
+    }
+
+    /**
+     * 从(lastValue, lastIdValue)之后开始，columnName可以不唯一
+     */
+    public static SeekToken after(String columnName, boolean desc, Object lastValue, Object lastIdValue) {
+        return new SeekToken(columnName, desc, true, lastValue, lastIdValue);
+    }
+
+    /**
+     * @param lastEntity 当前页的最后一个实体
+     * @return 下一页的token，lastEntity为null（没有更多数据）时返回null
+     */
+    public SeekToken next(Object lastEntity) {
+        if (lastEntity == null) return null;
+        Class<?> entityType = lastEntity.getClass();
+        Id id = Table.get(entityType).getId();
+        if (columnName.equals(id.getColumnName())) {
+            return new SeekToken(columnName, desc, true, id.getColumnValue(lastEntity), null);
+        }
+        Column column = TableUtils.getColumnOrId(entityType, columnName);
+        return new SeekToken(columnName, desc, true, column.getColumnValue(lastEntity), id.getColumnValue(lastEntity));
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    public boolean isDesc() {
+        return desc;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public Object getLastValue() {
+        return lastValue;
+    }
+
+    public Object getLastIdValue() {
+        return lastIdValue;
+    }
+
+    /**
+     * @return 范围条件，第一页返回null
+     */
+    protected WhereBuilder buildWhereBuilder(Class<?> entityType) {
+        if (!started) return null;
+        String op = desc ? "<" : ">";
+        if (lastIdValue == null) {
+            return WhereBuilder.b(columnName, op, lastValue);
+        }
+        String idColumnName = Table.get(entityType).getId().getColumnName();
+        return WhereBuilder.b(columnName, op, lastValue)
+                .appendOR(WhereBuilder.b(columnName, "=", lastValue).append(idColumnName, op, lastIdValue));
+    }
+
+    protected String buildOrderBySql(Class<?> entityType) {
+        String order = desc ? " DESC" : " ASC";
+        String idColumnName = Table.get(entityType).getId().getColumnName();
+        if (columnName.equals(idColumnName)) {
+            return columnName + order;
+        }
+        return columnName + order + "," + idColumnName + order;
+    }
+}
@@ -18,6 +18,7 @@ package com.lidroid.xutils.db.sqlite;
 import com.lidroid.xutils.db.table.Table;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -30,10 +31,13 @@ public class Selector {
     protected Class<?> entityType;
     protected String tableName;
 
+    protected String[] columnNames;
     protected WhereBuilder whereBuilder;
     protected List<OrderBy> orderByList;
     protected int limit = 0;
     protected int offset = 0;
+    protected List<String> fetchNames;
+    protected SeekToken seekToken;
 
     private Selector(Class<?> entityType) {
         this.entityType = entityType;
@@ -49,6 +53,37 @@ public class Selector {
         return this;
     }
 
+    /**
+     * 只查询指定的列（主键总是会被查询），其余字段保持实体的默认值。
+     * 这样得到的实体调用update/saveOrUpdate时只更新查询了的列。
+     *
+     * @param columnNames
+     * @return
+     */
+    public Selector columns(String... columnNames) {
+        this.columnNames = columnNames;
+        return this;
+    }
+
+    /**
+     * 查询结果中这些外键关联的实体用 IN (...) 批量加载，代替每行一次查询（解决N+1查询）。
+     * 只对字段类型为实体或List的@Foreign列生效，DbUtils.iterate 不支持。
+     *
+     * @param names 外键列名或字段名
+     * @return
+     */
+    public Selector fetch(String... names) {
+        if (fetchNames == null) {
+            fetchNames = new ArrayList<String>(names.length);
+        }
+        fetchNames.addAll(Arrays.asList(names));
+        return this;
+    }
+
+    public List<String> getFetchNames() {
+        return fetchNames;
+    }
+
     public DbModelSelector groupBy(String columnName) {
         return new DbModelSelector(this, columnName);
     }
@@ -73,6 +108,30 @@ public class Selector {
         return this;
     }
 
+    /**
+     * 按token中的列排序，并从token记录的位置之后开始查询（代替offset翻页）
+     *
+     * @see SeekToken
+     */
+    public Selector after(SeekToken seekToken) {
+        this.seekToken = seekToken;
+        return this;
+    }
+
+    /**
+     * 按columnName升序，从lastValue之后开始，columnName需是唯一列（如主键）
+     */
+    public Selector after(String columnName, Object lastValue) {
+        return after(SeekToken.after(columnName, false, lastValue));
+    }
+
+    /**
+     * @return 下一页的token，没有使用after(...)时返回null
+     */
+    public SeekToken nextSeekToken(Object lastEntity) {
+        return seekToken == null ? null : seekToken.next(lastEntity);
+    }
+
     public Selector limit(int limit) {
         this.limit = limit;
         return this;
@@ -83,31 +142,107 @@ public class Selector {
         return this;
     }
 
+    /**
+     * @return 条件值用 ? 占位的查询语句及其参数
+     */
+    public SqlInfo toSqlInfo() {
+        SqlInfo result = new SqlInfo();
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT ");
+        if (columnNames != null && columnNames.length > 0) {
+            String idColumnName = Table.get(entityType).getId().getColumnName();
+            sql.append(idColumnName);
+            for (String columnName : columnNames) {
+                if (!idColumnName.equals(columnName)) {
+                    sql.append(",").append(columnName);
+                }
+            }
+        } else {
+            sql.append("*");
+        }
+        sql.append(" FROM ").append(tableName);
+        WhereBuilder where = buildWhereBuilder();
+        if (where != null) {
+            sql.append(" WHERE ").append(where.getSql());
+            result.addValues(where.getBindingArgs());
+        }
+        String orderBySql = buildOrderBySql();
+        if (orderBySql != null) {
+            sql.append(" ORDER BY ").append(orderBySql);
+        }
+        if (limit > 0) {
+            sql.append(" LIMIT ").append(limit);
+            sql.append(" OFFSET ").append(offset);
+        }
+        result.setSql(sql.toString());
+        return result;
+    }
+
+    /**
+     * 聚合查询：SELECT expression FROM table WHERE ...，忽略排序和limit/offset
+     *
+     * @param expression 如 COUNT(*)、SUM(price)
+     * @return
+     */
+    public SqlInfo toAggregateSqlInfo(String expression) {
+        SqlInfo result = new SqlInfo();
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT ").append(expression).append(" FROM ").append(tableName);
+        WhereBuilder where = buildWhereBuilder();
+        if (where != null) {
+            sql.append(" WHERE ").append(where.getSql());
+            result.addValues(where.getBindingArgs());
+        }
+        result.setSql(sql.toString());
+        return result;
+    }
+
+    /**
+     * @return 参数以字面量形式写入的查询语句
+     */
     @Override
     public String toString() {
+        return toSqlInfo().getInlineSql();
+    }
+
+    /**
+     * @return where条件与seek条件的组合，都没有时返回null
+     */
+    protected WhereBuilder buildWhereBuilder() {
+        WhereBuilder seek = seekToken == null ? null : seekToken.buildWhereBuilder(entityType);
+        if (whereBuilder == null || whereBuilder.getWhereItemSize() == 0) {
+            return seek;
+        }
+        if (seek == null) {
+            return whereBuilder;
+        }
+        return WhereBuilder.b().append(whereBuilder).append(seek);
+    }
+
+    protected String buildOrderBySql() {
         StringBuilder result = new StringBuilder();
-        result.append("SELECT ");
-        result.append("*");
-        result.append(" FROM ").append(tableName);
-        if (whereBuilder != null) {
-            result.append(" WHERE ").append(whereBuilder.toString());
+        if (seekToken != null) {
+            result.append(seekToken.buildOrderBySql(entityType));
         }
         if (orderByList != null) {
             for (int i = 0; i < orderByList.size(); i++) {
-                result.append(" ORDER BY ").append(orderByList.get(i).toString());
+                if (result.length() > 0) {
+                    result.append(",");
+                }
+                result.append(orderByList.get(i).toString());
             }
         }
-        if (limit > 0) {
-            result.append(" LIMIT ").append(limit);
-            result.append(" OFFSET ").append(offset);
-        }
-        return result.toString();
+        return result.length() > 0 ? result.toString() : null;
     }
 
     public Class<?> getEntityType() {
         return entityType;
     }
 
+    public String getTableName() {
+        return tableName;
+    }
+
     protected class OrderBy {
         private String columnName;
         private boolean desc;
@@ -17,10 +17,17 @@ package com.lidroid.xutils.db.sqlite;
 
 import com.lidroid.xutils.db.table.ColumnUtils;
 
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 public class SqlInfo {
 
+    /**
+     * SQLITE_MAX_VARIABLE_NUMBER 的默认值，一条语句中 ? 的个数不能超过它
+     */
+    public static final int MAX_BINDING_ARGS = 999;
+
     private String sql;
     private LinkedList<Object> bindingArgs;
 
@@ -31,6 +38,15 @@ public class SqlInfo {
         this.sql = sql;
     }
 
+    public SqlInfo(String sql, Object... bindingArgs) {
+        this.sql = sql;
+        if (bindingArgs != null) {
+            for (Object value : bindingArgs) {
+                addValue(value);
+            }
+        }
+    }
+
     public String getSql() {
         return sql;
     }
@@ -54,7 +70,8 @@ public class SqlInfo {
         if (bindingArgs != null) {
             String[] strings = new String[bindingArgs.size()];
             for (int i = 0; i < bindingArgs.size(); i++) {
-                strings[i] = bindingArgs.get(i).toString();
+                Object value = bindingArgs.get(i);
+                strings[i] = value == null ? null : value.toString();
             }
             return strings;
         }
@@ -69,4 +86,61 @@ public class SqlInfo {
         bindingArgs.add(ColumnUtils.convert2DbColumnValueIfNeeded(value));
     }
 
+    public void addValues(List<Object> values) {
+        if (values != null) {
+            for (Object value : values) {
+                addValue(value);
+            }
+        }
+    }
+
+    /**
+     * @return 参数以字面量形式写入的sql，用于日志或只接受sql字符串的接口
+     */
+    public String getInlineSql() {
+        return inlineBindingArgs(sql, bindingArgs);
+    }
+
+    public static String inlineBindingArgs(String sql, List<Object> bindingArgs) {
+        if (sql == null || bindingArgs == null || bindingArgs.size() == 0) {
+            return sql;
+        }
+        StringBuilder sb = new StringBuilder(sql.length() + bindingArgs.size() * 8);
+        Iterator<Object> iterator = bindingArgs.iterator();
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '?' && iterator.hasNext()) {
+                appendLiteral(sb, iterator.next());
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return value的sql字面量（字符串加引号并转义, byte[]为X'..'）
+     */
+    public static String toLiteral(Object value) {
+        StringBuilder sb = new StringBuilder();
+        appendLiteral(sb, value);
+        return sb.toString();
+    }
+
+    private static void appendLiteral(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("NULL");
+        } else if (value instanceof Number) {
+            sb.append(value);
+        } else if (value instanceof byte[]) {
+            sb.append("X'");
+            for (byte b : (byte[]) value) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            sb.append("'");
+        } else {
+            sb.append("'").append(value.toString().replace("'", "''")).append("'");
+        }
+    }
+
 }
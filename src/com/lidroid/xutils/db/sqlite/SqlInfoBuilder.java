@@ -15,13 +15,17 @@
 
 package com.lidroid.xutils.db.sqlite;
 
+import android.text.TextUtils;
 import com.lidroid.xutils.DbUtils;
+import com.lidroid.xutils.db.annotation.Index;
+import com.lidroid.xutils.db.annotation.Indexes;
 import com.lidroid.xutils.db.table.*;
 import com.lidroid.xutils.exception.DbException;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 构造insert，update，delete，create语句。
@@ -34,36 +38,193 @@ public class SqlInfoBuilder {
 
     //*********************************************** insert sql ***********************************************
 
+    /**
+     * key: entityType
+     * value: insert sql
+     */
+    private static final ConcurrentHashMap<Class<?>, String> insertSqlMap = new ConcurrentHashMap<Class<?>, String>();
+
+    /**
+     * 每个实体类型的insert语句是固定的（值为null的列绑定NULL），
+     * 这样DbUtils可以按sql缓存编译好的SQLiteStatement。
+     */
     public static SqlInfo buildInsertSqlInfo(DbUtils db, Object entity) throws DbException {
 
-        List<KeyValue> keyValueList = entity2KeyValueList(db, entity);
-        if (keyValueList.size() == 0) return null;
+        Table table = Table.get(entity.getClass());
+        Id id = table.getId();
+        boolean bindId = !id.isAutoIncreaseType();
+        Collection<Column> columns = table.columnMap.values();
+        if (!bindId && columns.size() == 0) return null;
 
-        SqlInfo result = new SqlInfo();
-        StringBuffer sqlBuffer = new StringBuffer();
+        SqlInfo result = new SqlInfo(getInsertSql(entity.getClass(), table));
+        if (bindId) {
+            result.addValue(id.getColumnValue(entity));
+        }
+        for (Column column : columns) {
+            result.addValue(getColumnValueOrDefault(db, entity, column));
+        }
+
+        return result;
+    }
 
+    private static String getInsertSql(Class<?> entityType, Table table) {
+        String sql = insertSqlMap.get(entityType);
+        if (sql != null) {
+            return sql;
+        }
+
+        Id id = table.getId();
+        StringBuffer sqlBuffer = new StringBuffer();
         sqlBuffer.append("INSERT INTO ");
-        sqlBuffer.append(Table.get(entity.getClass()).getTableName());
+        sqlBuffer.append(table.getTableName());
         sqlBuffer.append(" (");
-        for (KeyValue kv : keyValueList) {
-            sqlBuffer.append(kv.getKey()).append(",");
-            result.addValue(kv.getValue());
+        int length = 0;
+        if (!id.isAutoIncreaseType()) {
+            sqlBuffer.append(id.getColumnName()).append(",");
+            length++;
+        }
+        for (Column column : table.columnMap.values()) {
+            sqlBuffer.append(column.getColumnName()).append(",");
+            length++;
         }
         sqlBuffer.deleteCharAt(sqlBuffer.length() - 1);
         sqlBuffer.append(") VALUES ( ");
-
-        int length = keyValueList.size();
         for (int i = 0; i < length; i++) {
             sqlBuffer.append("?,");
         }
         sqlBuffer.deleteCharAt(sqlBuffer.length() - 1);
         sqlBuffer.append(")");
 
-        result.setSql(sqlBuffer.toString());
+        sql = sqlBuffer.toString();
+        insertSqlMap.put(entityType, sql);
+        return sql;
+    }
+
+    //*********************************************** upsert sql ***********************************************
+
+    /**
+     * key: entityType
+     * value: upsert sql
+     */
+    private static final ConcurrentHashMap<Class<?>, String> insertWithIdSqlMap = new ConcurrentHashMap<Class<?>, String>();
+    private static final ConcurrentHashMap<Class<?>, String> onConflictSqlMap = new ConcurrentHashMap<Class<?>, String>();
+    private static final ConcurrentHashMap<Class<?>, String> updateByIdSqlMap = new ConcurrentHashMap<Class<?>, String>();
+
+    /**
+     * 按主键插入或更新，更新时值为null（且没有默认值）的列保持原值，与update(entity)相同。
+     *
+     * @param onConflictUpdate true: INSERT ... ON CONFLICT(id) DO UPDATE（需要SQLite 3.24.0以上），
+     *                         false: 带主键的INSERT，用于buildUpdateByIdSqlInfo没有更新到行时插入
+     */
+    public static SqlInfo buildUpsertSqlInfo(DbUtils db, Object entity, boolean onConflictUpdate) throws DbException {
+
+        Table table = Table.get(entity.getClass());
+        Id id = table.getId();
+        Object idValue = id.getColumnValue(entity);
+
+        if (null == idValue) {
+            throw new DbException("this entity[" + entity.getClass() + "]'s id value is null");
+        }
+
+        SqlInfo result = new SqlInfo(getUpsertSql(entity.getClass(), table, onConflictUpdate));
+        result.addValue(idValue);
+        for (Column column : table.columnMap.values()) {
+            result.addValue(getColumnValueOrDefault(db, entity, column));
+        }
 
         return result;
     }
 
+    private static String getUpsertSql(Class<?> entityType, Table table, boolean onConflictUpdate) {
+        ConcurrentHashMap<Class<?>, String> sqlMap = onConflictUpdate ? onConflictSqlMap : insertWithIdSqlMap;
+        String sql = sqlMap.get(entityType);
+        if (sql != null) {
+            return sql;
+        }
+
+        Id id = table.getId();
+        Collection<Column> columns = table.columnMap.values();
+        StringBuffer sqlBuffer = new StringBuffer();
+        sqlBuffer.append("INSERT INTO ");
+        sqlBuffer.append(table.getTableName());
+        sqlBuffer.append(" (").append(id.getColumnName());
+        for (Column column : columns) {
+            sqlBuffer.append(",").append(column.getColumnName());
+        }
+        sqlBuffer.append(") VALUES (?");
+        for (int i = 0; i < columns.size(); i++) {
+            sqlBuffer.append(",?");
+        }
+        sqlBuffer.append(")");
+
+        if (onConflictUpdate) {
+            sqlBuffer.append(" ON CONFLICT(").append(id.getColumnName()).append(") DO ");
+            if (columns.size() == 0) {
+                sqlBuffer.append("NOTHING");
+            } else {
+                sqlBuffer.append("UPDATE SET ");
+                for (Column column : columns) {
+                    String columnName = column.getColumnName();
+                    sqlBuffer.append(columnName).append("=COALESCE(excluded.").append(columnName).append(",").append(columnName).append("),");
+                }
+                sqlBuffer.deleteCharAt(sqlBuffer.length() - 1);
+            }
+        }
+
+        sql = sqlBuffer.toString();
+        sqlMap.put(entityType, sql);
+        return sql;
+    }
+
+    /**
+     * 不支持ON CONFLICT时的upsert：先按主键更新（值为null的列保持原值），没有更新到行时再用buildUpsertSqlInfo(db, entity, false)插入。
+     * 每个实体类型的sql是固定的，主键是最后一个参数。
+     */
+    public static SqlInfo buildUpdateByIdSqlInfo(DbUtils db, Object entity) throws DbException {
+
+        Table table = Table.get(entity.getClass());
+        Id id = table.getId();
+        Object idValue = id.getColumnValue(entity);
+
+        if (null == idValue) {
+            throw new DbException("this entity[" + entity.getClass() + "]'s id value is null");
+        }
+
+        SqlInfo result = new SqlInfo(getUpdateByIdSql(entity.getClass(), table));
+        for (Column column : table.columnMap.values()) {
+            result.addValue(getColumnValueOrDefault(db, entity, column));
+        }
+        result.addValue(idValue);
+
+        return result;
+    }
+
+    private static String getUpdateByIdSql(Class<?> entityType, Table table) {
+        String sql = updateByIdSqlMap.get(entityType);
+        if (sql != null) {
+            return sql;
+        }
+
+        Id id = table.getId();
+        Collection<Column> columns = table.columnMap.values();
+        StringBuffer sqlBuffer = new StringBuffer();
+        sqlBuffer.append("UPDATE ").append(table.getTableName()).append(" SET ");
+        if (columns.size() == 0) {
+            sqlBuffer.append(id.getColumnName()).append("=").append(id.getColumnName());
+        } else {
+            for (Column column : columns) {
+                String columnName = column.getColumnName();
+                sqlBuffer.append(columnName).append("=COALESCE(?,").append(columnName).append("),");
+            }
+            sqlBuffer.deleteCharAt(sqlBuffer.length() - 1);
+        }
+        sqlBuffer.append(" WHERE ").append(id.getColumnName()).append("=?");
+
+        sql = sqlBuffer.toString();
+        updateByIdSqlMap.put(entityType, sql);
+        return sql;
+    }
+
     //*********************************************** delete sql ***********************************************
 
     private static String buildDeleteSqlByTableName(String tableName) {
@@ -81,9 +242,10 @@ public class SqlInfoBuilder {
             throw new DbException(entity.getClass() + " id value is null");
         }
         StringBuilder sb = new StringBuilder(buildDeleteSqlByTableName(table.getTableName()));
-        sb.append(" WHERE ").append(WhereBuilder.b(id.getColumnName(), "=", idValue));
+        sb.append(" WHERE ").append(id.getColumnName()).append("=?");
 
         result.setSql(sb.toString());
+        result.addValue(idValue);
 
         return result;
     }
@@ -98,9 +260,10 @@ public class SqlInfoBuilder {
             throw new DbException("idValue is null");
         }
         StringBuilder sb = new StringBuilder(buildDeleteSqlByTableName(table.getTableName()));
-        sb.append(" WHERE ").append(WhereBuilder.b(id.getColumnName(), "=", idValue));
+        sb.append(" WHERE ").append(id.getColumnName()).append("=?");
 
         result.setSql(sb.toString());
+        result.addValue(idValue);
 
         return result;
     }
@@ -109,18 +272,27 @@ public class SqlInfoBuilder {
         Table table = Table.get(entityType);
         StringBuilder sb = new StringBuilder(buildDeleteSqlByTableName(table.getTableName()));
 
-        if (whereBuilder != null) {
-            sb.append(" WHERE ").append(whereBuilder.toString());
+        SqlInfo result = new SqlInfo();
+        if (whereBuilder != null && whereBuilder.getWhereItemSize() > 0) {
+            sb.append(" WHERE ").append(whereBuilder.getSql());
+            result.addValues(whereBuilder.getBindingArgs());
         }
 
-        return new SqlInfo(sb.toString());
+        result.setSql(sb.toString());
+        return result;
     }
 
     //*********************************************** update sql ***********************************************
 
     public static SqlInfo buildUpdateSqlInfo(DbUtils db, Object entity) throws DbException {
+        return buildUpdateSqlInfo(entity, entity2KeyValueList(db, entity));
+    }
+
+    /**
+     * 按主键只更新keyValueList中的列（值可以为null）
+     */
+    public static SqlInfo buildUpdateSqlInfo(Object entity, List<KeyValue> keyValueList) throws DbException {
 
-        List<KeyValue> keyValueList = entity2KeyValueList(db, entity);
         if (keyValueList.size() == 0) return null;
 
         Table table = Table.get(entity.getClass());
@@ -140,18 +312,25 @@ public class SqlInfoBuilder {
             result.addValue(kv.getValue());
         }
         sqlBuffer.deleteCharAt(sqlBuffer.length() - 1);
-        sqlBuffer.append(" WHERE ").append(WhereBuilder.b(id.getColumnName(), "=", idValue));
+        sqlBuffer.append(" WHERE ").append(id.getColumnName()).append("=?");
+        result.addValue(idValue);
 
         result.setSql(sqlBuffer.toString());
         return result;
     }
 
     public static SqlInfo buildUpdateSqlInfo(DbUtils db, Object entity, WhereBuilder whereBuilder) throws DbException {
+        return buildUpdateSqlInfo(entity.getClass(), entity2KeyValueList(db, entity), whereBuilder);
+    }
+
+    /**
+     * 把满足whereBuilder的行的keyValueList中的列设置为相同的值（值可以为null）
+     */
+    public static SqlInfo buildUpdateSqlInfo(Class<?> entityType, List<KeyValue> keyValueList, WhereBuilder whereBuilder) throws DbException {
 
-        List<KeyValue> keyValueList = entity2KeyValueList(db, entity);
         if (keyValueList.size() == 0) return null;
 
-        Table table = Table.get(entity.getClass());
+        Table table = Table.get(entityType);
 
         SqlInfo result = new SqlInfo();
         StringBuffer sqlBuffer = new StringBuffer("UPDATE ");
@@ -162,8 +341,9 @@ public class SqlInfoBuilder {
             result.addValue(kv.getValue());
         }
         sqlBuffer.deleteCharAt(sqlBuffer.length() - 1);
-        if (whereBuilder != null) {
-            sqlBuffer.append(" WHERE ").append(whereBuilder.toString());
+        if (whereBuilder != null && whereBuilder.getWhereItemSize() > 0) {
+            sqlBuffer.append(" WHERE ").append(whereBuilder.getSql());
+            result.addValues(whereBuilder.getBindingArgs());
         }
 
         result.setSql(sqlBuffer.toString());
@@ -173,47 +353,133 @@ public class SqlInfoBuilder {
     //*********************************************** others ***********************************************
 
     public static SqlInfo buildCreateTableSqlInfo(Class<?> entityType) throws DbException {
+        return buildCreateTableSqlInfo(entityType, Table.get(entityType).getTableName());
+    }
+
+    /**
+     * @param tableName 以实体的结构创建的表的表名（迁移时重建表使用）
+     */
+    public static SqlInfo buildCreateTableSqlInfo(Class<?> entityType, String tableName) throws DbException {
         Table table = Table.get(entityType);
 
-        Id id = table.getId();
         StringBuffer sqlBuffer = new StringBuffer();
         sqlBuffer.append("CREATE TABLE IF NOT EXISTS ");
-        sqlBuffer.append(table.getTableName());
+        sqlBuffer.append(tableName);
         sqlBuffer.append(" ( ");
 
+        sqlBuffer.append(buildIdDefinition(table.getId())).append(",");
+
+        Collection<Column> columns = table.columnMap.values();
+        for (Column column : columns) {
+            sqlBuffer.append(buildColumnDefinition(column)).append(",");
+        }
+
+        sqlBuffer.deleteCharAt(sqlBuffer.length() - 1);
+        sqlBuffer.append(" )");
+        return new SqlInfo(sqlBuffer.toString());
+    }
+
+    public static String buildIdDefinition(Id id) {
         if (id.isAutoIncreaseType()) {
-            sqlBuffer.append("\"").append(id.getColumnName()).append("\"  ").append("INTEGER PRIMARY KEY AUTOINCREMENT,");
+            return "\"" + id.getColumnName() + "\"  INTEGER PRIMARY KEY AUTOINCREMENT";
         } else {
-            sqlBuffer.append("\"").append(id.getColumnName()).append("\"  ").append("TEXT PRIMARY KEY,");
+            return "\"" + id.getColumnName() + "\"  TEXT PRIMARY KEY";
         }
+    }
 
-        Collection<Column> columns = table.columnMap.values();
-        for (Column column : columns) {
-            sqlBuffer.append("\"").append(column.getColumnName()).append("\"  ");
-            sqlBuffer.append(column.getDbType());
-            if (ColumnUtils.isUnique(column.getColumnField())) {
-                sqlBuffer.append(" UNIQUE");
+    /**
+     * @return 建表或ALTER TABLE ADD COLUMN中的列定义
+     */
+    public static String buildColumnDefinition(Column column) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\"").append(column.getColumnName()).append("\"  ");
+        sb.append(column.getDbType());
+        if (ColumnUtils.isUnique(column.getColumnField())) {
+            sb.append(" UNIQUE");
+        }
+        if (ColumnUtils.isNotNull(column.getColumnField())) {
+            sb.append(" NOT NULL");
+        }
+        if (column.getDbDefaultValue() != null) {
+            sb.append(" DEFAULT ").append(SqlInfo.toLiteral(column.getDbDefaultValue()));
+        }
+        String check = ColumnUtils.getCheck(column.getColumnField());
+        if (check != null) {
+            sb.append(" CHECK(").append(check).append(")");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 字段和实体类上的@Index, @Indexes声明的索引
+     */
+    public static List<SqlInfo> buildCreateIndexSqlInfoList(Class<?> entityType) throws DbException {
+        Table table = Table.get(entityType);
+        List<SqlInfo> result = new ArrayList<SqlInfo>();
+
+        for (Column column : table.columnMap.values()) {
+            Index index = column.getColumnField().getAnnotation(Index.class);
+            if (index != null) {
+                result.add(buildCreateIndexSqlInfo(table, index, new String[]{column.getColumnName()}));
             }
-            if (ColumnUtils.isNotNull(column.getColumnField())) {
-                sqlBuffer.append(" NOT NULL");
+        }
+
+        Index index = entityType.getAnnotation(Index.class);
+        if (index != null) {
+            result.add(buildCreateIndexSqlInfo(table, index, index.columns()));
+        }
+        Indexes indexes = entityType.getAnnotation(Indexes.class);
+        if (indexes != null) {
+            for (Index item : indexes.value()) {
+                result.add(buildCreateIndexSqlInfo(table, item, item.columns()));
             }
-            String check = ColumnUtils.getCheck(column.getColumnField());
-            if (check != null) {
-                sqlBuffer.append(" CHECK(").append(check).append(")");
+        }
+
+        return result;
+    }
+
+    private static SqlInfo buildCreateIndexSqlInfo(Table table, Index index, String[] columnNames) throws DbException {
+        if (columnNames == null || columnNames.length == 0) {
+            throw new DbException("index of " + table.getTableName() + " has no columns");
+        }
+
+        String indexName = index.name();
+        if (TextUtils.isEmpty(indexName)) {
+            StringBuilder nameBuilder = new StringBuilder("index_").append(table.getTableName());
+            for (String columnName : columnNames) {
+                nameBuilder.append("_").append(columnName);
             }
-            sqlBuffer.append(",");
+            indexName = nameBuilder.toString();
         }
 
-        sqlBuffer.deleteCharAt(sqlBuffer.length() - 1);
-        sqlBuffer.append(" )");
-        return new SqlInfo(sqlBuffer.toString());
+        StringBuilder sqlBuilder = new StringBuilder("CREATE ");
+        if (index.unique()) {
+            sqlBuilder.append("UNIQUE ");
+        }
+        sqlBuilder.append("INDEX IF NOT EXISTS \"").append(indexName).append("\" ON ");
+        sqlBuilder.append(table.getTableName()).append(" (");
+        for (String columnName : columnNames) {
+            sqlBuilder.append("\"").append(columnName).append("\",");
+        }
+        sqlBuilder.deleteCharAt(sqlBuilder.length() - 1);
+        sqlBuilder.append(")");
+        return new SqlInfo(sqlBuilder.toString());
+    }
+
+    /**
+     * @param db 外键列用来级联保存关联实体
+     */
+    private static Object getColumnValueOrDefault(DbUtils db, Object entity, Column column) {
+        Object value = column instanceof Foreign ?
+                ((Foreign) column).getColumnValue(db, entity) :
+                column.getColumnValue(entity);
+        return value == null ? column.getDbDefaultValue() : value;
     }
 
-    private static KeyValue column2KeyValue(Object entity, Column column) {
+    private static KeyValue column2KeyValue(DbUtils db, Object entity, Column column) {
         KeyValue kv = null;
         String key = column.getColumnName();
-        Object value = column.getColumnValue(entity);
-        value = value == null ? column.getDefaultValue() : value;
+        Object value = getColumnValueOrDefault(db, entity, column);
         if (key != null && value != null) {
             kv = new KeyValue(key, value);
         }
@@ -238,10 +504,7 @@ public class SqlInfoBuilder {
 
         Collection<Column> columns = table.columnMap.values();
         for (Column column : columns) {
-            if (column instanceof Foreign) {
-                ((Foreign) column).db = db;
-            }
-            KeyValue kv = column2KeyValue(entity, column);
+            KeyValue kv = column2KeyValue(db, entity, column);
             if (kv != null) {
                 keyValueList.add(kv);
             }
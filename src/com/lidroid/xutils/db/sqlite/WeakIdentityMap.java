@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * 按对象标识（==）比较key的弱引用map，key被回收后对应的条目自动移除。
+ * 用于记录查询出的实体的附加信息（快照、已查询的列）。
+ */
+public class WeakIdentityMap<V> {
+
+    private final HashMap<EntityRef, V> map = new HashMap<EntityRef, V>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    public synchronized V get(Object entity) {
+        expunge();
+        return map.get(new EntityRef(entity, null));
+    }
+
+    public synchronized void put(Object entity, V value) {
+        expunge();
+        map.put(new EntityRef(entity, queue), value);
+    }
+
+    public synchronized boolean containsKey(Object entity) {
+        return map.containsKey(new EntityRef(entity, null));
+    }
+
+    public synchronized void remove(Object entity) {
+        map.remove(new EntityRef(entity, null));
+    }
+
+    /**
+     * 移除key为entityType实例的条目
+     */
+    public synchronized void removeByType(Class<?> entityType) {
+        expunge();
+        Iterator<EntityRef> iterator = map.keySet().iterator();
+        while (iterator.hasNext()) {
+            Object entity = iterator.next().get();
+            if (entity == null || entity.getClass() == entityType) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        expunge();
+    }
+
+    private void expunge() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    private static class EntityRef extends WeakReference<Object> {
+        private final int hash;
+
+        private EntityRef(Object entity, ReferenceQueue<Object> queue) {
+            super(entity, queue);
+            this.hash = System.identityHashCode(entity);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EntityRef)) return false;
+            Object entity = get();
+            return entity != null && entity == ((EntityRef) o).get();
+        }
+    }
+}
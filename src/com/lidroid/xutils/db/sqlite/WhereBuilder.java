@@ -17,6 +17,7 @@ package com.lidroid.xutils.db.sqlite;
 
 import com.lidroid.xutils.db.table.ColumnUtils;
 
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,10 +28,19 @@ import java.util.List;
  */
 public class WhereBuilder {
 
-    private List<String> whereItems;
+    /**
+     * 条件语句，值用 ? 占位
+     */
+    private final List<String> whereItems;
+
+    /**
+     * 与whereItems中的 ? 一一对应
+     */
+    private final List<Object> bindingArgs;
 
     private WhereBuilder() {
         this.whereItems = new ArrayList<String>();
+        this.bindingArgs = new ArrayList<Object>();
     }
 
     /**
@@ -46,8 +56,8 @@ public class WhereBuilder {
      * create new instance
      *
      * @param columnName
-     * @param op         operator: "=","<","LIKE"...
-     * @param value
+     * @param op         operator: "=","<","LIKE","IN"...
+     * @param value      IN/NOT IN 时可以是集合或数组
      * @return
      */
     public static WhereBuilder b(String columnName, String op, Object value) {
@@ -60,7 +70,7 @@ public class WhereBuilder {
      * add AND condition
      *
      * @param columnName
-     * @param op         operator: "=","<","LIKE"...
+     * @param op         operator: "=","<","LIKE","IN"...
      * @param value
      * @return
      */
@@ -73,7 +83,7 @@ public class WhereBuilder {
      * add OR condition
      *
      * @param columnName
-     * @param op         operator: "=","<","LIKE"...
+     * @param op         operator: "=","<","LIKE","IN"...
      * @param value
      * @return
      */
@@ -82,11 +92,36 @@ public class WhereBuilder {
         return this;
     }
 
-    @Override
-    public String toString() {
-        if (whereItems == null || whereItems.size() < 1) {
-            return "";
-        }
+    /**
+     * add AND (whereBuilder) condition
+     *
+     * @param whereBuilder
+     * @return
+     */
+    public WhereBuilder append(WhereBuilder whereBuilder) {
+        appendGroup(whereItems.size() == 0 ? null : "AND", whereBuilder);
+        return this;
+    }
+
+    /**
+     * add OR (whereBuilder) condition
+     *
+     * @param whereBuilder
+     * @return
+     */
+    public WhereBuilder appendOR(WhereBuilder whereBuilder) {
+        appendGroup(whereItems.size() == 0 ? null : "OR", whereBuilder);
+        return this;
+    }
+
+    public int getWhereItemSize() {
+        return whereItems.size();
+    }
+
+    /**
+     * @return 用 ? 占位的条件语句
+     */
+    public String getSql() {
         StringBuilder sb = new StringBuilder();
         for (String item : whereItems) {
             sb.append(item);
@@ -94,20 +129,75 @@ public class WhereBuilder {
         return sb.toString();
     }
 
+    /**
+     * @return getSql() 中 ? 对应的参数
+     */
+    public List<Object> getBindingArgs() {
+        return bindingArgs;
+    }
+
+    /**
+     * @return 参数以字面量形式写入的条件语句
+     */
+    @Override
+    public String toString() {
+        if (whereItems == null || whereItems.size() < 1) {
+            return "";
+        }
+        return SqlInfo.inlineBindingArgs(getSql(), bindingArgs);
+    }
+
     private void appendCondition(String conj, String columnName, String op, Object value) {
         StringBuilder sqlSb = new StringBuilder();
         if (conj != null && conj.length() > 0) {
             sqlSb.append(" " + conj + " ");
         }
-        sqlSb.append(columnName).append(" " + op + " ");
         value = ColumnUtils.convert2DbColumnValueIfNeeded(value);
         if (value == null) {
-            sqlSb.append("NULL");
-        } else if ("TEXT".equals(ColumnUtils.fieldType2DbType(value.getClass()))) {
-            sqlSb.append("'" + value + "'");
+            if ("=".equals(op)) {
+                sqlSb.append(columnName).append(" IS NULL");
+            } else if ("!=".equals(op) || "<>".equals(op)) {
+                sqlSb.append(columnName).append(" IS NOT NULL");
+            } else {
+                sqlSb.append(columnName).append(" " + op + " NULL");
+            }
+        } else if (isInOperator(op) && (value instanceof Iterable || (value.getClass().isArray() && !(value instanceof byte[])))) {
+            sqlSb.append(columnName).append(" " + op + " (");
+            int count = 0;
+            if (value instanceof Iterable) {
+                for (Object item : (Iterable<?>) value) {
+                    bindingArgs.add(ColumnUtils.convert2DbColumnValueIfNeeded(item));
+                    count++;
+                }
+            } else {
+                count = Array.getLength(value);
+                for (int i = 0; i < count; i++) {
+                    bindingArgs.add(ColumnUtils.convert2DbColumnValueIfNeeded(Array.get(value, i)));
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                sqlSb.append(i == 0 ? "?" : ",?");
+            }
+            sqlSb.append(")");
         } else {
-            sqlSb.append(value);
+            sqlSb.append(columnName).append(" " + op + " ?");
+            bindingArgs.add(value);
+        }
+        whereItems.add(sqlSb.toString());
+    }
+
+    private void appendGroup(String conj, WhereBuilder whereBuilder) {
+        if (whereBuilder == null || whereBuilder.getWhereItemSize() == 0) return;
+        StringBuilder sqlSb = new StringBuilder();
+        if (conj != null && conj.length() > 0) {
+            sqlSb.append(" " + conj + " ");
         }
+        sqlSb.append("(").append(whereBuilder.getSql()).append(")");
+        bindingArgs.addAll(whereBuilder.getBindingArgs());
         whereItems.add(sqlSb.toString());
     }
+
+    private static boolean isInOperator(String op) {
+        return "IN".equalsIgnoreCase(op) || "NOT IN".equalsIgnoreCase(op);
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.sqlite;
+
+import com.lidroid.xutils.DbUtils;
+import com.lidroid.xutils.exception.DbException;
+import com.lidroid.xutils.util.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 延迟写入缓冲区：收集待保存的实体，缓冲的个数达到maxSize或最早的实体等待超过maxDelay时，
+ * 在后台线程中用一个事务写入。
+ * 写入前的实体对查询不可见；进程被杀死时未写入的实体会丢失，
+ * 需要在Activity.onPause()等时机调用flush()。
+ */
+public class WriteBehindBuffer {
+
+    /**
+     * 实体逐个重试仍写入失败时的回调, 在执行写入的线程中调用
+     */
+    public interface FailureListener {
+        void onWriteFailure(Object entity, DbException error);
+    }
+
+    private final DbUtils db;
+    private final ScheduledExecutorService scheduler;
+    private final int maxSize;
+    private final long maxDelay;
+    private final FailureListener failureListener;
+
+    private List<Object> pending = new ArrayList<Object>();
+    private boolean flushScheduled = false;
+
+    /**
+     * 保证各次写入按顺序执行；在事务中不能等待这个锁
+     */
+    private final Object flushLock = new Object();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param scheduler       执行写入的线程, 由DbUtils的各个缓冲区共用
+     * @param maxSize         缓冲的实体个数达到maxSize时写入
+     * @param maxDelay        最早的实体等待maxDelay毫秒后写入
+     * @param failureListener 可以为null, 为null时只记录日志
+     */
+    public WriteBehindBuffer(DbUtils db, ScheduledExecutorService scheduler, int maxSize, long maxDelay, FailureListener failureListener) {
+        this.db = db;
+        this.scheduler = scheduler;
+        this.maxSize = Math.max(maxSize, 1);
+        this.maxDelay = Math.max(maxDelay, 0);
+        this.failureListener = failureListener;
+    }
+
+    public void add(Object entity) {
+        if (entity == null) return;
+        boolean flushNow = false;
+        synchronized (this) {
+            pending.add(entity);
+            try {
+                if (pending.size() >= maxSize) {
+                    flushScheduled = true;
+                    scheduler.execute(flushTask);
+                } else if (!flushScheduled) {
+                    flushScheduled = true;
+                    scheduler.schedule(flushTask, maxDelay, TimeUnit.MILLISECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                // configWriteBehind()关闭了写入线程
+                flushNow = true;
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * 在当前线程中写入所有缓冲的实体, 返回时它们已提交；
+     * 当前线程在事务中时写入当前事务, 随它一起提交, 不等待正在其他线程中写入的实体。
+     *
+     * @return 写入的实体个数
+     */
+    public int flush() {
+        if (db.getDatabase().inTransaction()) {
+            // 当前线程持有数据库连接，等待flushLock可能与持有flushLock、等待数据库连接的写入线程死锁
+            return writeOneByOne(takePending());
+        }
+        synchronized (flushLock) {
+            return write(takePending());
+        }
+    }
+
+    private synchronized List<Object> takePending() {
+        List<Object> entities = pending;
+        pending = new ArrayList<Object>();
+        flushScheduled = false;
+        return entities;
+    }
+
+    /**
+     * 在一个事务中写入；失败时回滚，再逐个写入，写入失败的实体交给failureListener
+     */
+    private int write(List<Object> entities) {
+        if (entities.isEmpty()) {
+            return 0;
+        }
+        boolean succeeded = false;
+        boolean began = false;
+        try {
+            db.openTransaction();
+            began = true;
+            for (Object entity : entities) {
+                db.save(entity);
+            }
+            succeeded = true;
+        } catch (Throwable e) {
+            LogUtils.d("write-behind flush failed, retry one by one: " + e.getMessage());
+        } finally {
+            if (began) {
+                try {
+                    db.closeTransaction(succeeded);
+                } catch (Throwable e) {
+                    succeeded = false;
+                    LogUtils.e(e.getMessage(), e);
+                }
+            }
+        }
+        if (succeeded) {
+            return entities.size();
+        }
+        return writeOneByOne(entities);
+    }
+
+    private int writeOneByOne(List<Object> entities) {
+        int count = 0;
+        for (Object entity : entities) {
+            try {
+                db.save(entity);
+                count++;
+            } catch (DbException e) {
+                onWriteFailure(entity, e);
+            } catch (Throwable e) {
+                onWriteFailure(entity, new DbException(e));
+            }
+        }
+        return count;
+    }
+
+    private void onWriteFailure(Object entity, DbException error) {
+        if (failureListener == null) {
+            LogUtils.e("drop entity: " + error.getMessage(), error);
+            return;
+        }
+        try {
+            failureListener.onWriteFailure(entity, error);
+        } catch (Throwable e) {
+            LogUtils.e(e.getMessage(), e);
+        }
+    }
+}
@@ -15,6 +15,7 @@
 
 package com.lidroid.xutils.db.table;
 
+import android.database.Cursor;
 import com.lidroid.xutils.util.LogUtils;
 
 import java.lang.reflect.Field;
@@ -25,20 +26,50 @@ public class Column {
     protected String columnName;
     private String defaultValue;
 
+    /**
+     * 按字段类型转换后的默认值，用于绑定参数
+     */
+    private Object dbDefaultValue;
+
     protected Method getMethod;
     protected Method setMethod;
 
     protected Field columnField;
 
+    /**
+     * 生成的字段访问器，为null时使用反射
+     */
+    protected EntityBinder.FieldBinder fieldBinder;
+
     protected Column(Class entityType, Field field) {
         this.columnField = field;
         this.columnName = ColumnUtils.getColumnNameByField(field);
         this.defaultValue = ColumnUtils.getColumnDefaultValue(field);
-        this.getMethod = ColumnUtils.getColumnGetMethod(entityType, field);
-        this.setMethod = ColumnUtils.getColumnSetMethod(entityType, field);
+        this.dbDefaultValue = defaultValue;
+        if (defaultValue != null) {
+            try {
+                Object value = ColumnUtils.valueStr2SimpleTypeFieldValue(field.getType(), defaultValue);
+                if (value != null) {
+                    this.dbDefaultValue = ColumnUtils.convert2DbColumnValueIfNeeded(value);
+                }
+            } catch (Exception e) {
+                LogUtils.w("default value of " + columnName + " is not a " + field.getType().getSimpleName());
+            }
+        }
+
+        EntityBinder entityBinder = TableUtils.getEntityBinder(entityType);
+        if (entityBinder != null) {
+            this.fieldBinder = entityBinder.getFieldBinder(field.getName());
+        }
+        if (fieldBinder == null) {
+            this.getMethod = ColumnUtils.getColumnGetMethod(entityType, field);
+            this.setMethod = ColumnUtils.getColumnSetMethod(entityType, field);
+            if (getMethod == null || setMethod == null) {
+                this.columnField.setAccessible(true);
+            }
+        }
     }
 
-    @SuppressWarnings("unchecked")
     public void setValue2Entity(Object entity, String valueStr) {
 
         Object value = null;
@@ -47,42 +78,70 @@ public class Column {
             value = ColumnUtils.valueStr2SimpleTypeFieldValue(columnType, valueStr);
         }
 
-        if (setMethod != null) {
-            try {
-                setMethod.invoke(entity, value == null ? defaultValue : value);
-            } catch (Exception e) {
-                LogUtils.e(e.getMessage(), e);
-            }
-        } else {
-            try {
-                this.columnField.setAccessible(true);
-                this.columnField.set(entity, value == null ? defaultValue : value);
-            } catch (Exception e) {
-                LogUtils.e(e.getMessage(), e);
+        setFieldValue(entity, value == null ? defaultValue : value);
+    }
+
+    /**
+     * 按字段类型读取cursor中第index列的值并赋给entity
+     */
+    public void setValue2Entity(Object entity, Cursor cursor, int index) {
+        if (cursor.isNull(index)) {
+            setValue2Entity(entity, (String) null);
+            return;
+        }
+
+        try {
+            if (fieldBinder != null) {
+                if (fieldBinder.setValue(entity, cursor, index)) {
+                    return;
+                }
+            } else if (setMethod == null && columnField.getType().isPrimitive()) {
+                if (ColumnUtils.setPrimitiveFieldValue(columnField, entity, cursor, index)) {
+                    return;
+                }
             }
+        } catch (Exception e) {
+            LogUtils.e(e.getMessage(), e);
+            return;
         }
+
+        setFieldValue(entity, ColumnUtils.getCursorValue(columnField.getType(), cursor, index));
     }
 
-    @SuppressWarnings("unchecked")
     public Object getColumnValue(Object entity) {
+        return ColumnUtils.convert2DbColumnValueIfNeeded(getFieldValue(entity));
+    }
+
+    protected void setFieldValue(Object entity, Object value) {
+        try {
+            if (fieldBinder != null) {
+                fieldBinder.set(entity, value);
+            } else if (setMethod != null) {
+                setMethod.invoke(entity, value);
+            } else {
+                this.columnField.set(entity, value);
+            }
+        } catch (Exception e) {
+            LogUtils.e(e.getMessage(), e);
+        }
+    }
+
+    protected Object getFieldValue(Object entity) {
         Object resultObj = null;
         if (entity != null) {
-            if (getMethod != null) {
-                try {
+            try {
+                if (fieldBinder != null) {
+                    resultObj = fieldBinder.get(entity);
+                } else if (getMethod != null) {
                     resultObj = getMethod.invoke(entity);
-                } catch (Exception e) {
-                    LogUtils.e(e.getMessage(), e);
-                }
-            } else {
-                try {
-                    this.columnField.setAccessible(true);
+                } else {
                     resultObj = this.columnField.get(entity);
-                } catch (Exception e) {
-                    LogUtils.e(e.getMessage(), e);
                 }
+            } catch (Exception e) {
+                LogUtils.e(e.getMessage(), e);
             }
         }
-        return ColumnUtils.convert2DbColumnValueIfNeeded(resultObj);
+        return resultObj;
     }
 
     public String getColumnName() {
@@ -93,6 +152,13 @@ public class Column {
         return defaultValue;
     }
 
+    /**
+     * @return 按字段类型转换后的默认值（如Integer字段的"0"为0），无法转换时为字符串
+     */
+    public Object getDbDefaultValue() {
+        return dbDefaultValue;
+    }
+
     public Field getColumnField() {
         return columnField;
     }
@@ -15,6 +15,7 @@
 
 package com.lidroid.xutils.db.table;
 
+import android.database.Cursor;
 import com.lidroid.xutils.db.annotation.*;
 import com.lidroid.xutils.db.annotation.Column;
 import com.lidroid.xutils.db.annotation.Foreign;
@@ -121,9 +122,13 @@ public class ColumnUtils {
         return field.getAnnotation(Foreign.class) != null;
     }
 
+    /**
+     * byte[]字段只有声明了@Column时才是列（BLOB），避免已有实体中的byte[]字段新增列
+     */
     public static boolean isSimpleColumnType(Field field) {
         Class<?> clazz = field.getType();
-        return isSimpleColumnType(clazz);
+        return isSimpleColumnType(clazz) ||
+                (clazz.equals(byte[].class) && field.getAnnotation(Column.class) != null);
     }
 
     public static boolean isSimpleColumnType(Class columnType) {
@@ -193,6 +198,72 @@ public class ColumnUtils {
         return value;
     }
 
+    /**
+     * 按字段类型从cursor中读取值（getLong/getDouble/getBlob...），避免getString后再解析。
+     *
+     * @return 列值为NULL或字段类型不支持时返回null
+     */
+    public static Object getCursorValue(Class columnFieldType, Cursor cursor, int index) {
+        Object value = null;
+        if (!cursor.isNull(index)) {
+            if (columnFieldType.equals(String.class) || columnFieldType.equals(CharSequence.class)) {
+                value = cursor.getString(index);
+            } else if (columnFieldType.equals(int.class) || columnFieldType.equals(Integer.class)) {
+                value = cursor.getInt(index);
+            } else if (columnFieldType.equals(long.class) || columnFieldType.equals(Long.class)) {
+                value = cursor.getLong(index);
+            } else if (columnFieldType.equals(java.sql.Date.class)) {
+                value = new java.sql.Date(cursor.getLong(index));
+            } else if (columnFieldType.equals(Date.class)) {
+                value = new Date(cursor.getLong(index));
+            } else if (columnFieldType.equals(boolean.class) || columnFieldType.equals(Boolean.class)) {
+                value = cursor.getInt(index) == 1;
+            } else if (columnFieldType.equals(float.class) || columnFieldType.equals(Float.class)) {
+                value = cursor.getFloat(index);
+            } else if (columnFieldType.equals(double.class) || columnFieldType.equals(Double.class)) {
+                value = cursor.getDouble(index);
+            } else if (columnFieldType.equals(byte.class) || columnFieldType.equals(Byte.class)) {
+                value = (byte) cursor.getInt(index);
+            } else if (columnFieldType.equals(short.class) || columnFieldType.equals(Short.class)) {
+                value = cursor.getShort(index);
+            } else if (columnFieldType.equals(char.class) || columnFieldType.equals(Character.class)) {
+                value = cursor.getString(index).charAt(0);
+            } else if (columnFieldType.equals(byte[].class)) {
+                value = cursor.getBlob(index);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 直接写入基本类型字段，不装箱。
+     *
+     * @return 字段类型不是基本类型时返回false
+     */
+    public static boolean setPrimitiveFieldValue(Field field, Object entity, Cursor cursor, int index) throws IllegalAccessException {
+        Class<?> fieldType = field.getType();
+        if (fieldType.equals(int.class)) {
+            field.setInt(entity, cursor.getInt(index));
+        } else if (fieldType.equals(long.class)) {
+            field.setLong(entity, cursor.getLong(index));
+        } else if (fieldType.equals(boolean.class)) {
+            field.setBoolean(entity, cursor.getInt(index) == 1);
+        } else if (fieldType.equals(float.class)) {
+            field.setFloat(entity, cursor.getFloat(index));
+        } else if (fieldType.equals(double.class)) {
+            field.setDouble(entity, cursor.getDouble(index));
+        } else if (fieldType.equals(byte.class)) {
+            field.setByte(entity, (byte) cursor.getInt(index));
+        } else if (fieldType.equals(short.class)) {
+            field.setShort(entity, cursor.getShort(index));
+        } else if (fieldType.equals(char.class)) {
+            field.setChar(entity, cursor.getString(index).charAt(0));
+        } else {
+            return false;
+        }
+        return true;
+    }
+
     @SuppressWarnings("unchecked")
     public static Class<?> getForeignEntityType(com.lidroid.xutils.db.table.Foreign foreignColumn) {
         Class<?> result = (Class<?>) foreignColumn.getColumnField().getType();
@@ -242,6 +313,8 @@ public class ColumnUtils {
                 fieldType.equals(double.class) ||
                 fieldType.equals(Double.class)) {
             return "REAL";
+        } else if (fieldType.equals(byte[].class)) {
+            return "BLOB";
         }
         return "TEXT";
     }
@@ -22,52 +22,95 @@ public class DbModel {
 
     /**
      * key: columnName
-     * value: valueStr
+     * value: Long, Double, String, byte[] 或 null
      */
-    private HashMap<String, String> dataMap = new HashMap<String, String>();
+    private HashMap<String, Object> dataMap = new HashMap<String, Object>();
 
     public String getString(String columnName) {
-        return dataMap.get(columnName);
+        Object value = dataMap.get(columnName);
+        return value == null ? null : value.toString();
     }
 
     public int getInt(String columnName) {
+        Object value = dataMap.get(columnName);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
         return Integer.valueOf(getString(columnName));
     }
 
     public boolean getBoolean(String columnName) {
-        return ColumnUtils.convert2Boolean(getString(columnName));
+        Object value = dataMap.get(columnName);
+        if (value instanceof Number) {
+            return ((Number) value).intValue() == 1;
+        }
+        return ColumnUtils.convert2Boolean(value);
     }
 
     public double getDouble(String columnName) {
+        Object value = dataMap.get(columnName);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
         return Double.valueOf(getString(columnName));
     }
 
     public float getFloat(String columnName) {
+        Object value = dataMap.get(columnName);
+        if (value instanceof Number) {
+            return ((Number) value).floatValue();
+        }
         return Float.valueOf(getString(columnName));
     }
 
     public long getLong(String columnName) {
+        Object value = dataMap.get(columnName);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
         return Long.valueOf(getString(columnName));
     }
 
     public Date getDate(String columnName) {
-        long date = Long.valueOf(getString(columnName));
-        return new Date(date);
+        return new Date(getLong(columnName));
     }
 
     public java.sql.Date getSqlDate(String columnName) {
-        long date = Long.valueOf(getString(columnName));
-        return new java.sql.Date(date);
+        return new java.sql.Date(getLong(columnName));
+    }
+
+    public byte[] getBlob(String columnName) {
+        Object value = dataMap.get(columnName);
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return value == null ? null : value.toString().getBytes();
+    }
+
+    public Object get(String columnName) {
+        return dataMap.get(columnName);
+    }
+
+    public boolean isEmpty(String columnName) {
+        return dataMap.get(columnName) == null;
     }
 
     public void add(String columnName, String valueStr) {
         dataMap.put(columnName, valueStr);
     }
 
+    public void add(String columnName, Object value) {
+        dataMap.put(columnName, value);
+    }
+
     /**
-     * @return key: columnName
+     * @return key: columnName, value: valueStr（副本）
      */
     public HashMap<String, String> getDataMap() {
-        return dataMap;
+        HashMap<String, String> result = new HashMap<String, String>(dataMap.size());
+        for (String columnName : dataMap.keySet()) {
+            result.put(columnName, getString(columnName));
+        }
+        return result;
     }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.db.table;
+
+import android.database.Cursor;
+
+/**
+ * 实体类的字段访问器，用于替代反射读写字段。
+ * 由 Processor 模块中的 EntityBinderProcessor 在编译时生成，
+ * 实现类命名为 实体类名 + "$$EntityBinder"（例如 com.example.User$$EntityBinder），
+ * 需有无参构造方法；存在时 TableUtils 自动使用，否则回退到反射。
+ */
+public interface EntityBinder {
+
+    /**
+     * @param fieldName 实体类中声明的字段名
+     * @return 该字段的访问器，不支持时返回null（回退到反射）
+     */
+    public FieldBinder getFieldBinder(String fieldName);
+
+    public interface FieldBinder {
+
+        public Object get(Object entity);
+
+        public void set(Object entity, Object value);
+
+        /**
+         * 用与字段类型对应的 getInt/getLong/getDouble... 读取cursor中第index列（非NULL）并直接赋值，基本类型不装箱
+         *
+         * @return 字段类型不是简单类型（如外键）时返回false，由调用者转换后调用set
+         */
+        public boolean setValue(Object entity, Cursor cursor, int index);
+    }
+}
@@ -14,19 +14,23 @@
  */
 package com.lidroid.xutils.db.table;
 
+import android.database.Cursor;
 import com.lidroid.xutils.DbUtils;
 import com.lidroid.xutils.db.sqlite.SQLiteLazyLoader;
 import com.lidroid.xutils.exception.DbException;
 import com.lidroid.xutils.util.LogUtils;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Foreign extends Column {
 
     /**
-     * 被 CursorUtils.getEntity 或 SqlInfoBuilder.entity2KeyValueList 赋值
+     * @deprecated Foreign被所有DbUtils共享，不再赋值也不再读取（始终为null），
+     * 使用 getColumnValue(DbUtils, Object) 和 setValue2Entity(DbUtils, Object, String)
      */
+    @Deprecated
     public DbUtils db;
 
     private String foreignColumnName;
@@ -40,9 +44,21 @@ public class Foreign extends Column {
         return foreignColumnName;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * 没有DbUtils，不加载关联实体：List和实体字段为null（记录错误日志），SQLiteLazyLoader字段加载时抛出DbException
+     */
     @Override
     public void setValue2Entity(Object entity, String valueStr) {
+        setValue2Entity(null, entity, valueStr);
+    }
+
+    /**
+     * Foreign是实体类型共享的，不保存DbUtils，由调用者传入
+     *
+     * @param db 用来加载关联实体
+     */
+    @SuppressWarnings("unchecked")
+    public void setValue2Entity(DbUtils db, Object entity, String valueStr) {
 
         Object value = null;
         if (valueStr != null) {
@@ -50,58 +66,86 @@ public class Foreign extends Column {
             if (ColumnUtils.isSimpleColumnType(columnField)) {
                 value = ColumnUtils.valueStr2SimpleTypeFieldValue(columnType, valueStr);
             } else if (columnType.equals(SQLiteLazyLoader.class)) {
-                value = new SQLiteLazyLoader(this, valueStr);
+                value = new SQLiteLazyLoader(db, this, valueStr);
             } else if (columnType.equals(List.class)) {
                 try {
-                    value = new SQLiteLazyLoader(this, valueStr).getAllFromDb();
+                    value = new SQLiteLazyLoader(db, this, valueStr).getAllFromDb();
                 } catch (DbException e) {
                     LogUtils.e(e.getMessage(), e);
                 }
             } else {
                 try {
-                    value = new SQLiteLazyLoader(this, valueStr).getFirstFromDb();
+                    value = new SQLiteLazyLoader(db, this, valueStr).getFirstFromDb();
                 } catch (DbException e) {
                     LogUtils.e(e.getMessage(), e);
                 }
             }
         }
 
-        if (setMethod != null) {
-            try {
-                setMethod.invoke(entity, value);
-            } catch (Exception e) {
-                LogUtils.e(e.getMessage(), e);
-            }
+        setFieldValue(entity, value);
+    }
+
+    /**
+     * @return 关联实体可以批量查询后再赋值（字段类型是实体或List，而不是简单类型或SQLiteLazyLoader）
+     */
+    public boolean isBatchLoadable() {
+        return !ColumnUtils.isSimpleColumnType(columnField) && !isLazyLoader();
+    }
+
+    /**
+     * 把批量查询出的关联实体赋给entity
+     *
+     * @param foreignEntities 与entity关联的实体，没有时为空列表
+     */
+    @SuppressWarnings("unchecked")
+    public void setForeignEntities2Entity(Object entity, List<?> foreignEntities) {
+        Object value;
+        if (columnField.getType().equals(List.class)) {
+            value = new ArrayList(foreignEntities);
         } else {
-            try {
-                this.columnField.setAccessible(true);
-                this.columnField.set(entity, value);
-            } catch (Exception e) {
-                LogUtils.e(e.getMessage(), e);
-            }
+            value = foreignEntities.size() > 0 ? foreignEntities.get(0) : null;
         }
+        setFieldValue(entity, value);
     }
 
+    /**
+     * 字段类型为SQLiteLazyLoader时，为entity设置共享BatchContext的loader
+     */
     @SuppressWarnings("unchecked")
+    public void setValue2Entity(DbUtils db, Object entity, String valueStr, SQLiteLazyLoader.BatchContext batchContext) {
+        setFieldValue(entity, valueStr == null ? null : new SQLiteLazyLoader(db, this, valueStr, batchContext));
+    }
+
+    public boolean isLazyLoader() {
+        return columnField.getType().equals(SQLiteLazyLoader.class);
+    }
+
+    @Override
+    public void setValue2Entity(Object entity, Cursor cursor, int index) {
+        setValue2Entity(entity, cursor.getString(index));
+    }
+
+    /**
+     * @return 外键列的值，不级联保存关联实体
+     */
     @Override
     public Object getColumnValue(Object entity) {
-        Object resultObj = null;
-        if (entity != null) {
-            if (getMethod != null) {
-                try {
-                    resultObj = getMethod.invoke(entity);
-                } catch (Exception e) {
-                    LogUtils.e(e.getMessage(), e);
-                }
-            } else {
-                try {
-                    this.columnField.setAccessible(true);
-                    resultObj = this.columnField.get(entity);
-                } catch (Exception e) {
-                    LogUtils.e(e.getMessage(), e);
-                }
-            }
-        }
+        return getColumnValue(null, entity);
+    }
+
+    /**
+     * @return 外键列的值，不级联保存关联实体
+     */
+    public Object getForeignKeyValue(Object entity) {
+        return getColumnValue(null, entity);
+    }
+
+    /**
+     * @param db 不为null时先用它saveOrUpdate关联实体（开启DirtyTracker时跳过未修改的关联实体）
+     */
+    @SuppressWarnings("unchecked")
+    public Object getColumnValue(DbUtils db, Object entity) {
+        Object resultObj = getFieldValue(entity);
 
         if (resultObj != null) {
             Class columnType = columnField.getType();
@@ -110,13 +154,17 @@ public class Foreign extends Column {
             } else if (columnType.equals(List.class)) {
                 try {
                     List foreignValues = (List) resultObj;
-                    if (foreignValues.size() > 0 && this.db != null) {
-
-                        for (Object item : foreignValues) {
-                            try {
-                                this.db.saveOrUpdate(item);
-                            } catch (DbException e) {
-                                LogUtils.e(e.getMessage(), e);
+                    if (foreignValues.size() > 0) {
+
+                        if (db != null) {
+                            for (Object item : foreignValues) {
+                                try {
+                                    if (db.isDirty(item)) {
+                                        db.saveOrUpdate(item);
+                                    }
+                                } catch (DbException e) {
+                                    LogUtils.e(e.getMessage(), e);
+                                }
                             }
                         }
 
@@ -130,9 +178,11 @@ public class Foreign extends Column {
                 }
             } else {
                 try {
-                    if (this.db != null) {
+                    if (db != null) {
                         try {
-                            this.db.saveOrUpdate(resultObj);
+                            if (db.isDirty(resultObj)) {
+                                db.saveOrUpdate(resultObj);
+                            }
                         } catch (DbException e) {
                             LogUtils.e(e.getMessage(), e);
                         }
@@ -15,24 +15,25 @@
 
 package com.lidroid.xutils.db.table;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class Table {
 
-    private String tableName;
+    private final String tableName;
 
-    private Id id;
+    private final Id id;
 
     /**
-     * key: columnName
+     * key: columnName, 不可修改
      */
-    public final HashMap<String, Column> columnMap;
+    public final Map<String, Column> columnMap;
 
     /**
-     * key: className
+     * key: entityType
      */
-    private static final HashMap<String, Table> tableMap = new HashMap<String, Table>();
+    private static final ConcurrentHashMap<Class<?>, Table> tableMap = new ConcurrentHashMap<Class<?>, Table>();
 
     private Table(Class entityType) {
         this.tableName = TableUtils.getTableName(entityType);
@@ -40,12 +41,18 @@ public class Table {
         this.columnMap = TableUtils.getColumnMap(entityType);
     }
 
-    public static synchronized Table get(Class entityType) {
+    /**
+     * 不加锁：并发的第一次调用可能各自创建一次，但只有先放入的Table会被返回
+     */
+    public static Table get(Class<?> entityType) {
 
-        Table table = tableMap.get(entityType.getCanonicalName());
+        Table table = tableMap.get(entityType);
         if (table == null) {
             table = new Table(entityType);
-            tableMap.put(entityType.getCanonicalName(), table);
+            Table oldTable = tableMap.putIfAbsent(entityType, table);
+            if (oldTable != null) {
+                table = oldTable;
+            }
         }
 
         return table;
@@ -59,14 +66,5 @@ public class Table {
         return id;
     }
 
-    private boolean checkDatabase;
-
-    public boolean isCheckDatabase() {
-        return checkDatabase;
-    }
-
-    public void setCheckDatabase(boolean checkDatabase) {
-        this.checkDatabase = checkDatabase;
-    }
 
 }
@@ -20,7 +20,9 @@ import com.lidroid.xutils.db.annotation.Table;
 import com.lidroid.xutils.util.LogUtils;
 
 import java.lang.reflect.Field;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class TableUtils {
@@ -38,25 +40,26 @@ public class TableUtils {
     }
 
     /**
-     * key: entityType.canonicalName
+     * key: entityType
      */
-    private static ConcurrentHashMap<String, HashMap<String, Column>> entityColumnsMap = new ConcurrentHashMap<String, HashMap<String, Column>>();
+    private static final ConcurrentHashMap<Class<?>, Map<String, Column>> entityColumnsMap = new ConcurrentHashMap<Class<?>, Map<String, Column>>();
 
     /**
+     * 不加锁：并发的第一次调用可能各自解析一次，但只有先放入的结果会被返回
+     *
      * @param entityType
-     * @return key: columnName
+     * @return key: columnName, 不可修改
      */
-    public static synchronized HashMap<String, Column> getColumnMap(Class<?> entityType) {
-
-        if (entityColumnsMap.containsKey(entityType.getCanonicalName())) {
-            return entityColumnsMap.get(entityType.getCanonicalName());
+    public static Map<String, Column> getColumnMap(Class<?> entityType) {
+        Map<String, Column> columnMap = entityColumnsMap.get(entityType);
+        if (columnMap != null) {
+            return columnMap;
         }
 
-        HashMap<String, Column> columnMap = new HashMap<String, Column>();
-        addColumns2Map(entityType, columnMap);
-        entityColumnsMap.put(entityType.getCanonicalName(), columnMap);
-
-        return columnMap;
+        HashMap<String, Column> newColumnMap = new HashMap<String, Column>();
+        addColumns2Map(entityType, newColumnMap);
+        columnMap = entityColumnsMap.putIfAbsent(entityType, Collections.unmodifiableMap(newColumnMap));
+        return columnMap != null ? columnMap : entityColumnsMap.get(entityType);
     }
 
     private static void addColumns2Map(Class<?> entityType, HashMap<String, Column> columnMap) {
@@ -91,6 +94,39 @@ public class TableUtils {
         }
     }
 
+    private static final EntityBinder NO_BINDER = new EntityBinder() {
+        @Override
+        public FieldBinder getFieldBinder(String fieldName) {
+            return null;
+        }
+    };
+
+    /**
+     * key: entityType
+     */
+    private static final ConcurrentHashMap<Class<?>, EntityBinder> entityBinderMap = new ConcurrentHashMap<Class<?>, EntityBinder>();
+
+    /**
+     * @param entityType
+     * @return 生成的 entityType$$EntityBinder 实例，不存在时返回null
+     */
+    public static EntityBinder getEntityBinder(Class<?> entityType) {
+        EntityBinder binder = entityBinderMap.get(entityType);
+        if (binder == null) {
+            try {
+                Class<?> binderType = Class.forName(entityType.getName() + "$$EntityBinder", true, entityType.getClassLoader());
+                binder = (EntityBinder) binderType.newInstance();
+            } catch (ClassNotFoundException e) {
+                binder = NO_BINDER;
+            } catch (Exception e) {
+                LogUtils.e(e.getMessage(), e);
+                binder = NO_BINDER;
+            }
+            entityBinderMap.put(entityType, binder);
+        }
+        return binder == NO_BINDER ? null : binder;
+    }
+
     public static Column getColumnOrId(Class<?> entityType, String columnName) {
         if (getPrimaryKeyColumnName(entityType).equals(columnName)) {
             return com.lidroid.xutils.db.table.Table.get(entityType).getId();
@@ -107,15 +143,19 @@ public class TableUtils {
     }
 
     /**
-     * key: entityType.canonicalName
+     * key: entityType
      */
-    private static ConcurrentHashMap<String, com.lidroid.xutils.db.table.Id> entityIdMap = new ConcurrentHashMap<String, com.lidroid.xutils.db.table.Id>();
+    private static final ConcurrentHashMap<Class<?>, com.lidroid.xutils.db.table.Id> entityIdMap = new ConcurrentHashMap<Class<?>, com.lidroid.xutils.db.table.Id>();
 
-    public static synchronized com.lidroid.xutils.db.table.Id getId(Class<?> entityType) {
+    /**
+     * 不加锁，同getColumnMap
+     */
+    public static com.lidroid.xutils.db.table.Id getId(Class<?> entityType) {
         if (Object.class.equals(entityType)) return null;
 
-        if (entityIdMap.containsKey(entityType.getCanonicalName())) {
-            return entityIdMap.get(entityType.getCanonicalName());
+        com.lidroid.xutils.db.table.Id cachedId = entityIdMap.get(entityType);
+        if (cachedId != null) {
+            return cachedId;
         }
 
         Field primaryKeyField = null;
@@ -139,7 +179,11 @@ public class TableUtils {
             }
 
             if (primaryKeyField == null && !Object.class.equals(entityType.getSuperclass())) {
-                return getId(entityType.getSuperclass());
+                com.lidroid.xutils.db.table.Id superId = getId(entityType.getSuperclass());
+                if (superId != null) {
+                    cachedId = entityIdMap.putIfAbsent(entityType, superId);
+                }
+                return cachedId != null ? cachedId : superId;
             }
 
         } else {
@@ -147,8 +191,8 @@ public class TableUtils {
         }
 
         com.lidroid.xutils.db.table.Id id = new com.lidroid.xutils.db.table.Id(entityType, primaryKeyField);
-        entityIdMap.put(entityType.getCanonicalName(), id);
-        return id;
+        cachedId = entityIdMap.putIfAbsent(entityType, id);
+        return cachedId != null ? cachedId : id;
     }
 
     public static String getPrimaryKeyFieldName(Class<?> entityType) {